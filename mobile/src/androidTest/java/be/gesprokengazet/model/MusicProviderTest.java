@@ -16,13 +16,14 @@
 
 package be.gesprokengazet.model;
 
-import android.graphics.Bitmap;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.test.runner.AndroidJUnit4;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.test.mock.MockResources;
 
+import be.gesprokengazet.ArtworkProvider;
 import be.gesprokengazet.TestSetupHelper;
 import be.gesprokengazet.utils.MediaIDHelper;
 import be.gesprokengazet.utils.SimpleMusicProviderSource;
@@ -35,10 +36,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -148,19 +153,59 @@ public class MusicProviderTest {
 
     @Test
     public void testUpdateMusicArt() throws Exception {
-        Bitmap bIcon = Bitmap.createBitmap(2, 2, Bitmap.Config.ALPHA_8);
-        Bitmap bArt = Bitmap.createBitmap(2, 2, Bitmap.Config.ALPHA_8);
-
         MediaMetadataCompat metadata = provider.getShuffledMusic().iterator().next();
         String musicId = metadata.getDescription().getMediaId();
+        String artUrl = metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI);
+        Uri artUri = ArtworkProvider.getUri(artUrl);
 
-        assertNotEquals(bArt, metadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
-        assertNotEquals(bIcon, metadata.getBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
+        assertNotEquals(artUri, metadata.getDescription().getIconUri());
 
-        provider.updateMusicArt(musicId, bArt, bIcon);
+        provider.updateMusicArt(musicId, artUri);
         MediaMetadataCompat newMetadata = provider.getMusic(musicId);
-        assertEquals(bArt, newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
-        assertEquals(bIcon, newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
+        assertEquals(artUri, newMetadata.getDescription().getIconUri());
+        assertEquals(artUri.toString(),
+                newMetadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI));
+        // Bitmaps would be sent over binder to every controller
+        assertNull(newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
+        assertNull(newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
+        assertEquals(artUrl, ArtworkProvider.getSourceUrl(artUri.toString()));
+    }
+
+    @Test
+    public void testUpdateMusicArtKeepsReadTracks() throws Exception {
+        List<MediaMetadataCompat> genre = provider.getMusicsByGenre("Genre 1");
+        MediaMetadataCompat metadata = genre.get(0);
+        String musicId = metadata.getDescription().getMediaId();
+        Uri artUri = ArtworkProvider.getUri(
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI));
+
+        provider.updateMusicArt(musicId, artUri);
+
+        // What was read before stays as it was, a new read sees the change in place
+        assertSame(metadata, genre.get(0));
+        MediaMetadataCompat updated = provider.getMusicsByGenre("Genre 1").get(0);
+        assertEquals(musicId, updated.getDescription().getMediaId());
+        assertEquals(artUri, updated.getDescription().getIconUri());
+    }
+
+    @Test
+    public void testUpdateMusicArtKeepsOtherGenres() throws Exception {
+        List<MediaMetadataCompat> other = provider.getMusicsByGenre("Genre 2");
+        MediaMetadataCompat metadata = provider.getMusicsByGenre("Genre 1").get(1);
+        Uri artUri = ArtworkProvider.getUri(
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI));
+
+        provider.updateMusicArt(metadata.getDescription().getMediaId(), artUri);
+
+        assertSame(other, provider.getMusicsByGenre("Genre 2"));
+        List<MediaMetadataCompat> genre = provider.getMusicsByGenre("Genre 1");
+        assertEquals(3, genre.size());
+        assertEquals(artUri, genre.get(1).getDescription().getIconUri());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTracksCantBeChanged() throws Exception {
+        provider.getMusicsByGenre("Genre 1").clear();
     }
 
     @Test
@@ -227,4 +272,44 @@ public class MusicProviderTest {
                 level3.get(0).getMediaId(), resources);
         assertTrue(invalidLevel4.isEmpty());
    }
-}
\ No newline at end of file
+
+    @Test
+    public void testPartialCatalog() throws Exception {
+        final MediaMetadataCompat first = provider.getShuffledMusic().iterator().next();
+        final MusicProviderSource.Listener[] sourceListener = new MusicProviderSource.Listener[1];
+        MusicProvider partial = new MusicProvider(new MusicProviderSource() {
+            @Override
+            public void retrieve(Listener listener) {
+                // Only emit the first track, and never complete
+                sourceListener[0] = listener;
+                listener.onItems(Collections.singletonList(first));
+            }
+        });
+        final CountDownLatch changed = new CountDownLatch(1);
+        partial.setOnCatalogChangedListener(new MusicProvider.OnCatalogChangedListener() {
+            @Override
+            public void onCatalogChanged() {
+                changed.countDown();
+            }
+        });
+        partial.retrieveMediaAsync(null);
+
+        assertTrue(changed.await(5, TimeUnit.SECONDS));
+        assertFalse(partial.isInitialized());
+        assertTrue(partial.hasMusic());
+        String musicId = first.getDescription().getMediaId();
+        assertEquals(first, partial.getMusic(musicId));
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        partial.retrieveMediaAsync(new MusicProvider.Callback() {
+            @Override
+            public void onMusicCatalogReady(boolean success) {
+                assertTrue(success);
+                ready.countDown();
+            }
+        });
+        sourceListener[0].onComplete();
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        assertTrue(partial.isInitialized());
+    }
+}
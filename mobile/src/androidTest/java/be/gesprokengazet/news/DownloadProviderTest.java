@@ -44,8 +44,10 @@ public class DownloadProviderTest {
                 Context context = InstrumentationRegistry.getTargetContext();
                 VRTNewsSiteConfiguration config = new VRTNewsSiteConfiguration(context);
                 mToc = new TableOfContents(config.getTableOfContentsURL());
-                mTocDownloader = new DownloadManager<>(context, config.getTocScrapingJavascript());
-                mArticleDownloader = new DownloadManager<>(context, config.getArticleScrapingJavascript());
+                mTocDownloader = new DownloadManager<>(context, config.getTocScrapingJavascript(),
+                        config.getResourceFilter());
+                mArticleDownloader = new DownloadManager<>(context, config.getArticleScrapingJavascript(),
+                        config.getResourceFilter());
             }
         });
     }
@@ -0,0 +1,295 @@
+package be.gesprokengazet.news;
+
+import android.content.res.AssetManager;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the news site, so scraping can be tested and measured without a network.
+ * It serves the saved pages of a corpus from the assets of the test apk, under
+ * "news-corpus/&lt;version&gt;". A corpus is never changed once tests rely on it, a new version
+ * is added instead.
+ * <p>
+ * Responses can be slowed down by a latency before the first byte and a limited bandwidth, and a
+ * share of the requests can be made to fail. Failures are picked by a seeded random, so a test
+ * sees the same failures on every run.
+ */
+public class FakeNewsServer {
+    public static final String CORPUS_V1 = "v1";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * How requests fail when failures are injected.
+     */
+    public enum Failure {
+        /**
+         * The connection is closed without a response, the WebView reports a network error.
+         */
+        DROP_CONNECTION,
+        /**
+         * The server answers "503 Service Unavailable", the WebView loads the error page.
+         */
+        SERVER_ERROR
+    }
+
+    private final AssetManager mAssets;
+    private final String mCorpus;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicLong mBytes = new AtomicLong();
+    private ServerSocket mServerSocket;
+
+    // Guarded by this
+    private long mLatency;
+    private long mBandwidth;
+    private double mFailureRate;
+    private Failure mFailure = Failure.DROP_CONNECTION;
+    private Random mRandom = new Random(0);
+
+    /**
+     * @param assets the assets of the test apk.
+     * @param corpus the version of the corpus to serve, e.g. {@link #CORPUS_V1}.
+     */
+    public FakeNewsServer(AssetManager assets, String corpus) {
+        mAssets = assets;
+        mCorpus = corpus;
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Closed anyway
+        }
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the url of the given page of the corpus, e.g. "toc.html".
+     */
+    public String getUrl(String page) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + page;
+    }
+
+    /**
+     * @param latency the time before the first byte of every response, in milliseconds.
+     */
+    public synchronized void setLatency(long latency) {
+        mLatency = latency;
+    }
+
+    /**
+     * @param bandwidth the bytes per second of every response, or 0 for as fast as possible.
+     */
+    public synchronized void setBandwidth(long bandwidth) {
+        mBandwidth = bandwidth;
+    }
+
+    /**
+     * Makes the given share of the requests fail, from now on.
+     *
+     * @param failureRate between 0, nothing fails, and 1, everything fails.
+     * @param seed        the seed of the random that picks the failing requests.
+     */
+    public synchronized void setFailures(double failureRate, Failure failure, long seed) {
+        mFailureRate = failureRate;
+        mFailure = failure;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @return the number of requests received so far.
+     */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the number of requests that were made to fail so far.
+     */
+    public int getFailureCount() {
+        return mFailures.get();
+    }
+
+    /**
+     * @return the number of bytes sent so far, which shows what blocking requests saves.
+     */
+    public long getBytesServed() {
+        return mBytes.get();
+    }
+
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return; // Shut down
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // The client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Closed anyway
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), UTF8));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // The headers aren't needed, but must be read before answering
+        String header = reader.readLine();
+        while (header != null && !header.isEmpty()) {
+            header = reader.readLine();
+        }
+        mRequests.incrementAndGet();
+
+        long latency;
+        long bandwidth;
+        Failure failure = null;
+        synchronized (this) {
+            latency = mLatency;
+            bandwidth = mBandwidth;
+            if (mFailureRate > 0 && mRandom.nextDouble() < mFailureRate) {
+                failure = mFailure;
+            }
+        }
+        sleep(latency);
+
+        OutputStream out = socket.getOutputStream();
+        if (failure != null) {
+            mFailures.incrementAndGet();
+            if (failure == Failure.SERVER_ERROR) {
+                respond(out, "503 Service Unavailable", "text/plain",
+                        "Service Unavailable".getBytes(UTF8), bandwidth);
+            } else {
+                // Resets the connection instead of closing it cleanly
+                socket.setSoLinger(true, 0);
+            }
+            return;
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !"GET".equals(parts[0])) {
+            respond(out, "405 Method Not Allowed", "text/plain", new byte[0], bandwidth);
+            return;
+        }
+        String page = parts[1].substring(1);
+        int query = page.indexOf('?');
+        if (query >= 0) {
+            page = page.substring(0, query);
+        }
+        byte[] body;
+        try {
+            body = read("news-corpus/" + mCorpus + "/" + (page.isEmpty() ? "toc.html" : page));
+        } catch (FileNotFoundException e) {
+            respond(out, "404 Not Found", "text/plain", "Not Found".getBytes(UTF8), bandwidth);
+            return;
+        }
+        respond(out, "200 OK", "text/html; charset=utf-8", body, bandwidth);
+    }
+
+    private byte[] read(String asset) throws IOException {
+        if (asset.contains("..")) {
+            throw new FileNotFoundException(asset);
+        }
+        InputStream in = mAssets.open(asset);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void respond(OutputStream out, String status, String contentType, byte[] body,
+                         long bandwidth) throws IOException {
+        String headers = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Cache-Control: no-store\r\n" +
+                "Connection: close\r\n\r\n";
+        byte[] head = headers.getBytes(UTF8);
+        out.write(head);
+        mBytes.addAndGet(head.length);
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, length);
+            mBytes.addAndGet(length);
+            if (bandwidth > 0) {
+                out.flush();
+                sleep(TimeUnit.SECONDS.toMillis(length) / bandwidth);
+            }
+        }
+        out.flush();
+    }
+
+    private static void sleep(long millis) throws SocketException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("Server shut down");
+        }
+    }
+}
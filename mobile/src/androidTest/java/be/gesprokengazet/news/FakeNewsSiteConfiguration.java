@@ -0,0 +1,49 @@
+package be.gesprokengazet.news;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * The VRT news site, as served by a {@link FakeNewsServer}: the pages of the corpus are scraped
+ * with the scripts of the real site.
+ */
+public class FakeNewsSiteConfiguration extends NewsSiteConfiguration {
+    private final VRTNewsSiteConfiguration mSite;
+    private final FakeNewsServer mServer;
+
+    public FakeNewsSiteConfiguration(Context context, FakeNewsServer server) {
+        mSite = new VRTNewsSiteConfiguration(context);
+        mServer = server;
+    }
+
+    @Override
+    public Locale getLocale() {
+        return mSite.getLocale();
+    }
+
+    @Override
+    public String getName() {
+        return "Fake " + mSite.getName();
+    }
+
+    @Override
+    public String getTableOfContentsURL() {
+        return mServer.getUrl("toc.html");
+    }
+
+    @Override
+    public String getTocScrapingJavascript() {
+        return mSite.getTocScrapingJavascript();
+    }
+
+    @Override
+    public String getArticleScrapingJavascript() {
+        return mSite.getArticleScrapingJavascript();
+    }
+
+    @Override
+    public ResourceFilter getResourceFilter() {
+        return mSite.getResourceFilter();
+    }
+}
@@ -0,0 +1,256 @@
+package be.gesprokengazet.news;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import be.gesprokengazet.utils.MetricsRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Throughput and latency of scraping, against the {@link FakeNewsServer} instead of the live
+ * site, so the numbers can be compared between runs and between scraping engines. The results
+ * are logged under the "ScrapingThroughput" tag.
+ * <p>
+ * Another scraping engine is measured by overriding {@link #createEngine}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrapingThroughputTest {
+    private static final String TAG = "ScrapingThroughput";
+
+    // Articles in the v1 corpus, with a title, an intro and six paragraphs each
+    private static final int ARTICLE_COUNT = 8;
+    private static final int PARAGRAPH_COUNT = 8;
+
+    @Rule
+    public UiThreadTestRule uiRule = new UiThreadTestRule();
+
+    private FakeNewsServer mServer;
+    private ScrapingEngine mEngine;
+    private NewsSiteConfiguration mSite;
+
+    /**
+     * Scrapes resources one at a time or concurrently, whatever the engine prefers.
+     */
+    public interface ScrapingEngine {
+        void scrape(TableOfContents toc, WebResourceCompleted<TableOfContents> callback);
+
+        void scrape(Article article, WebResourceCompleted<Article> callback);
+
+        void destroy();
+    }
+
+    /**
+     * Creates the engine that is measured, on the UI thread. By default the
+     * {@link DownloadManager}s of the app.
+     */
+    protected ScrapingEngine createEngine(Context context, NewsSiteConfiguration site) {
+        final DownloadManager<TableOfContents> tocs =
+                new DownloadManager<>(context, site.getTocScrapingJavascript(),
+                        site.getResourceFilter());
+        final DownloadManager<Article> articles =
+                new DownloadManager<>(context, site.getArticleScrapingJavascript(),
+                        site.getResourceFilter());
+        return new ScrapingEngine() {
+            @Override
+            public void scrape(TableOfContents toc, WebResourceCompleted<TableOfContents> callback) {
+                tocs.scheduleForDownload(toc, callback);
+            }
+
+            @Override
+            public void scrape(Article article, WebResourceCompleted<Article> callback) {
+                articles.scheduleForDownload(article, callback);
+            }
+
+            @Override
+            public void destroy() {
+                tocs.destroy();
+                articles.destroy();
+            }
+        };
+    }
+
+    @Before
+    public void init() throws Throwable {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        mServer = new FakeNewsServer(InstrumentationRegistry.getContext().getAssets(),
+                FakeNewsServer.CORPUS_V1);
+        mServer.start();
+        MetricsRegistry.getInstance().reset();
+        uiRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mSite = new FakeNewsSiteConfiguration(context, mServer);
+                mEngine = createEngine(context, mSite);
+            }
+        });
+    }
+
+    @After
+    public void destroy() throws Throwable {
+        uiRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mEngine.destroy();
+            }
+        });
+        mServer.shutdown();
+    }
+
+    @Test
+    public void verifyCorpus() throws Exception {
+        TableOfContents toc = scrapeTableOfContents();
+        assertThat(toc.getTitlesAndURLs().size(), is(ARTICLE_COUNT));
+
+        for (Article article : scrapeArticles(toc).mArticles) {
+            assertThat(article.getUrl(), article.getText().size(), is(PARAGRAPH_COUNT));
+        }
+    }
+
+    @Test
+    public void measureThroughput() throws Exception {
+        Result result = scrapeArticles(scrapeTableOfContents());
+
+        assertThat("Errors: " + result.mErrors, result.mErrors.isEmpty(), is(true));
+        report("unthrottled", result);
+    }
+
+    @Test
+    public void measureSlowSite() throws Exception {
+        TableOfContents toc = scrapeTableOfContents();
+        mServer.setLatency(200);
+        mServer.setBandwidth(32 * 1024);
+        Result result = scrapeArticles(toc);
+
+        assertThat("Errors: " + result.mErrors, result.mErrors.isEmpty(), is(true));
+        // Every article waits for the latency at least, they can't be scraped faster
+        assertThat(result.mLatencies.get(0) >= 200, is(true));
+        report("200ms latency, 32kB/s", result);
+    }
+
+    @Test
+    public void measureFailingSite() throws Exception {
+        TableOfContents toc = scrapeTableOfContents();
+        mServer.setFailures(0.25, FakeNewsServer.Failure.DROP_CONNECTION, 42);
+        Result result = scrapeArticles(toc);
+
+        // Every article is reported, and only failed requests lead to errors
+        assertThat(result.mArticles.size(), is(ARTICLE_COUNT));
+        assertThat(result.mErrors.size() <= mServer.getFailureCount(), is(true));
+        for (Article article : result.mArticles) {
+            assertThat(article.getText().isEmpty() || article.getText().size() == PARAGRAPH_COUNT,
+                    is(true));
+        }
+        report("25% dropped connections", result);
+    }
+
+    // Do NOT run on the UI thread, that would deadlock as we block for the result to become available.
+    private TableOfContents scrapeTableOfContents() throws InterruptedException {
+        final TableOfContents toc = new TableOfContents(mSite.getTableOfContentsURL());
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] error = new String[1];
+        mEngine.scrape(toc, new WebResourceCompleted<TableOfContents>() {
+            @Override
+            public void onSuccess(TableOfContents resource) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(TableOfContents resource, String message) {
+                error[0] = message;
+                done.countDown();
+            }
+        });
+
+        assertThat("Timed out waiting for toc to download", done.await(30, TimeUnit.SECONDS),
+                is(true));
+        assertThat("Error occurred: " + error[0], error[0] == null, is(true));
+        return toc;
+    }
+
+    /**
+     * Schedules all articles of the given table of contents at once, and waits for them.
+     */
+    private Result scrapeArticles(TableOfContents toc) throws InterruptedException {
+        final Result result = new Result();
+        final CountDownLatch done = new CountDownLatch(toc.getTitlesAndURLs().size());
+        final long start = SystemClock.elapsedRealtime();
+        for (String url : toc.getTitlesAndURLs().values()) {
+            Article article = new Article(url);
+            result.mArticles.add(article);
+            mEngine.scrape(article, new WebResourceCompleted<Article>() {
+                @Override
+                public void onSuccess(Article resource) {
+                    result.done(SystemClock.elapsedRealtime() - start);
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(Article resource, String message) {
+                    result.fail(message, SystemClock.elapsedRealtime() - start);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertThat("Timed out waiting for articles to download", done.await(120, TimeUnit.SECONDS),
+                is(true));
+        result.mDuration = SystemClock.elapsedRealtime() - start;
+        Collections.sort(result.mLatencies);
+        return result;
+    }
+
+    private void report(String scenario, Result result) {
+        int scraped = result.mArticles.size() - result.mErrors.size();
+        Log.i(TAG, String.format("%s: %d articles in %d ms, %.2f articles/s, latency p50 %d ms," +
+                        " max %d ms, %d errors, %d requests, %d bytes", scenario, scraped,
+                result.mDuration,
+                scraped * 1000.0 / Math.max(1, result.mDuration),
+                result.mLatencies.get(result.mLatencies.size() / 2),
+                result.mLatencies.get(result.mLatencies.size() - 1),
+                result.mErrors.size(), mServer.getRequestCount(), mServer.getBytesServed()));
+        for (Map.Entry<String, Long> metric : MetricsRegistry.getInstance().snapshot().entrySet()) {
+            if (metric.getKey().startsWith("download.")) {
+                Log.i(TAG, scenario + ": " + metric.getKey() + " = " + metric.getValue());
+            }
+        }
+    }
+
+    /**
+     * The outcome of scraping a batch of articles. The latency of an article is the time from
+     * scheduling the batch until the article was done.
+     */
+    private static class Result {
+        private final List<Article> mArticles = new ArrayList<>();
+        private final List<String> mErrors = new ArrayList<>();
+        private final List<Long> mLatencies = new ArrayList<>();
+        private long mDuration;
+
+        synchronized void done(long latency) {
+            mLatencies.add(latency);
+        }
+
+        synchronized void fail(String message, long latency) {
+            mErrors.add(message);
+            mLatencies.add(latency);
+        }
+    }
+}
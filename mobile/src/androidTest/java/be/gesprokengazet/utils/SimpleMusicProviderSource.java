@@ -21,7 +21,6 @@ import android.support.v4.media.MediaMetadataCompat;
 import be.gesprokengazet.model.MusicProviderSource;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 public class SimpleMusicProviderSource implements MusicProviderSource {
@@ -48,8 +47,9 @@ public class SimpleMusicProviderSource implements MusicProviderSource {
     }
 
     @Override
-    public Iterator<MediaMetadataCompat> iterator() {
-        return mData.iterator();
+    public void retrieve(Listener listener) {
+        listener.onItems(new ArrayList<>(mData));
+        listener.onComplete();
     }
 
 }
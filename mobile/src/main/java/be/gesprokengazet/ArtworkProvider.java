@@ -0,0 +1,247 @@
+package be.gesprokengazet;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+import be.gesprokengazet.utils.HttpHelper;
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serves artwork to media controllers, so the metadata of the session only needs to carry a
+ * content:// uri instead of bitmaps: every controller decodes the image at the size it needs.
+ * Images are downloaded when first opened and kept in a bounded cache on local storage.
+ * <p>
+ * Only artwork that was handed out through {@link #getUri(String)} is served, other apps can't
+ * make this one fetch arbitrary urls.
+ */
+public class ArtworkProvider extends ContentProvider {
+    private static final String TAG = LogHelper.makeLogTag(ArtworkProvider.class);
+
+    public static final String AUTHORITY = "be.gesprokengazet.artwork";
+
+    private static final String DIRECTORY = "artwork";
+    private static final long MAX_CACHE_SIZE = 20 * 1024 * 1024;
+
+    // Source url of the artwork, by the last path segment of its content uri
+    private static final ConcurrentMap<String, String> sSources = new ConcurrentHashMap<>();
+    private static volatile File sDirectory;
+
+    /**
+     * @return the content uri under which the artwork at the given url is served.
+     */
+    public static Uri getUri(String sourceUrl) {
+        String key = hash(sourceUrl);
+        sSources.put(key, sourceUrl);
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(key).build();
+    }
+
+    /**
+     * @return the url the given artwork is fetched from, or the given uri itself if it isn't
+     * served by this provider. Needed by receivers that can't reach this device's providers.
+     */
+    public static String getSourceUrl(String uri) {
+        if (!isArtworkUri(uri)) {
+            return uri;
+        }
+        String source = sSources.get(Uri.parse(uri).getLastPathSegment());
+        return source != null ? source : uri;
+    }
+
+    public static boolean isArtworkUri(String uri) {
+        return uri != null && uri.startsWith("content://" + AUTHORITY + "/");
+    }
+
+    /**
+     * Opens the artwork from within the app, without going through a content resolver. It is
+     * downloaded if needed, so this must not be called from the UI thread.
+     */
+    public static InputStream openStream(String uri) throws IOException {
+        return new FileInputStream(fetch(Uri.parse(uri)));
+    }
+
+    @Override
+    public boolean onCreate() {
+        //noinspection ConstantConditions
+        sDirectory = new File(getContext().getCacheDir(), DIRECTORY);
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Artwork is read-only: " + uri);
+        }
+        File file;
+        try {
+            file = fetch(uri);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not fetch ", uri);
+            throw new FileNotFoundException("Could not fetch " + uri);
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        File file = fileFor(uri);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        return options.outMimeType;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Artwork is read-only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only");
+    }
+
+    /**
+     * @return the cached file of the given artwork, downloaded first if it wasn't cached yet.
+     */
+    private static File fetch(Uri uri) throws IOException {
+        File file = fileFor(uri);
+        if (file == null) {
+            throw new FileNotFoundException("Unknown artwork " + uri);
+        }
+        if (file.exists()) {
+            // Keeps recently used artwork from being trimmed
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        String source = sSources.get(uri.getLastPathSegment());
+        if (source == null) {
+            throw new FileNotFoundException("Unknown artwork " + uri);
+        }
+
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        // Concurrent downloads of the same artwork each write their own file, the last one wins.
+        File temp = File.createTempFile(file.getName(), null, directory);
+        try {
+            InputStream in = HttpHelper.openStream(source);
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    byte[] buffer = new byte[8192];
+                    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not store " + file);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+        trim(directory);
+        return file;
+    }
+
+    private static File fileFor(Uri uri) {
+        String key = uri.getLastPathSegment();
+        File directory = sDirectory;
+        if (directory == null || key == null || !AUTHORITY.equals(uri.getAuthority()) ||
+                !key.matches("[0-9a-f]+")) {
+            return null;
+        }
+        return new File(directory, key);
+    }
+
+    /**
+     * Removes the least recently used artwork until the cache fits its size again.
+     */
+    private static synchronized void trim(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_CACHE_SIZE) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && size > MAX_CACHE_SIZE; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            } else {
+                LogHelper.w(TAG, "Could not remove ", files[i]);
+            }
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Both are always available, a programming error.
+        }
+    }
+}
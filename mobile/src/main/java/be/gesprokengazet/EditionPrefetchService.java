@@ -0,0 +1,358 @@
+package be.gesprokengazet;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.speech.tts.TextToSpeech;
+
+import be.gesprokengazet.model.ListeningHistory;
+import be.gesprokengazet.news.Article;
+import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionFile;
+import be.gesprokengazet.news.EditionStore;
+import be.gesprokengazet.news.NewsSiteConfiguration;
+import be.gesprokengazet.news.Priority;
+import be.gesprokengazet.news.TableOfContents;
+import be.gesprokengazet.news.VRTNewsSiteConfiguration;
+import be.gesprokengazet.news.WebResourceCompleted;
+import be.gesprokengazet.playback.SpeechCache;
+import be.gesprokengazet.playback.SpeechEngine;
+import be.gesprokengazet.playback.SpeechScript;
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that downloads the table of contents and all of its articles ahead of time, and
+ * optionally synthesizes the audio for them. The result is written as an {@link EditionFile}.
+ * It runs daily at a configurable time, and whenever the device is charging on an unmetered
+ * network. Listening then starts instantly, even without network.
+ */
+public class EditionPrefetchService extends JobService {
+    private static final String TAG = LogHelper.makeLogTag(EditionPrefetchService.class);
+
+    private static final int JOB_ID_UNMETERED = 1;
+    private static final int JOB_ID_DAILY = 2;
+
+    private static final long UNMETERED_INTERVAL = TimeUnit.HOURS.toMillis(6);
+    // The daily prefetch runs at the latest this long after the configured time.
+    private static final long DAILY_WINDOW = TimeUnit.MINUTES.toMillis(30);
+
+    // Preferences of the settings screen: the time of the daily prefetch, as HH:mm, and whether
+    // the audio is synthesized upfront.
+    public static final String PREF_PREFETCH_TIME = "prefetchTime";
+    public static final String PREF_SYNTHESIZE = "prefetchSynthesize";
+    private static final String DEFAULT_PREFETCH_TIME = "06:00";
+
+    private Prefetch mPrefetch;
+
+    /**
+     * Schedules the prefetch jobs, unless they are scheduled already.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        boolean unmeteredPending = false;
+        boolean dailyPending = false;
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            unmeteredPending |= job.getId() == JOB_ID_UNMETERED;
+            dailyPending |= job.getId() == JOB_ID_DAILY;
+        }
+
+        if (!unmeteredPending) {
+            scheduler.schedule(new JobInfo.Builder(JOB_ID_UNMETERED,
+                    new ComponentName(context, EditionPrefetchService.class))
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setRequiresCharging(true)
+                    .setPeriodic(UNMETERED_INTERVAL)
+                    .setPersisted(true)
+                    .build());
+        }
+        if (!dailyPending) {
+            scheduleDaily(context);
+        }
+    }
+
+    /**
+     * Schedules the daily prefetch at the configured time, replacing the one that is pending.
+     */
+    public static void scheduleDaily(Context context) {
+        String[] time = getPreferences(context)
+                .getString(PREF_PREFETCH_TIME, DEFAULT_PREFETCH_TIME).split(":");
+        Calendar next = Calendar.getInstance();
+        next.set(Calendar.HOUR_OF_DAY, Integer.parseInt(time[0]));
+        next.set(Calendar.MINUTE, Integer.parseInt(time[1]));
+        next.set(Calendar.SECOND, 0);
+        if (next.getTimeInMillis() <= System.currentTimeMillis()) {
+            next.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        long delay = next.getTimeInMillis() - System.currentTimeMillis();
+
+        // Scheduling a job with the same id replaces the pending one.
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID_DAILY,
+                new ComponentName(context, EditionPrefetchService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                .setOverrideDeadline(delay + DAILY_WINDOW)
+                .setPersisted(true)
+                .build());
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @param articles the articles of the table of contents, in the same order.
+     * @return the entries of the edition, one for every article of the table of contents.
+     * Articles without content, e.g. because they failed to download or were heard already, only
+     * have their title and url: they'll be downloaded on demand.
+     */
+    static List<EditionFile.Entry> createEntries(TableOfContents toc, List<Article> articles) {
+        List<EditionFile.Entry> entries = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, String> titleAndUrl : toc.getTitlesAndURLs().entrySet()) {
+            Article article = articles.get(index++);
+            entries.add(new EditionFile.Entry(titleAndUrl.getValue(), titleAndUrl.getKey(),
+                    article.hasContent() ? article.getText() : Collections.<String>emptyList(),
+                    null));
+        }
+        return entries;
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        LogHelper.d(TAG, "onStartJob ", params.getJobId());
+        if (params.getJobId() == JOB_ID_DAILY) {
+            // A daily job only runs once, so plan the one of tomorrow.
+            scheduleDaily(this);
+        }
+        if (mPrefetch != null) {
+            // Both jobs fired at about the same time, the ongoing prefetch serves both.
+            return false;
+        }
+
+        mPrefetch = new Prefetch(params, new VRTNewsSiteConfiguration(this),
+                getPreferences(this).getBoolean(PREF_SYNTHESIZE, false));
+        mPrefetch.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        LogHelper.d(TAG, "onStopJob ", params.getJobId());
+        if (mPrefetch != null) {
+            mPrefetch.cancel();
+            mPrefetch = null;
+        }
+        // Conditions are no longer met, retry when they are.
+        return true;
+    }
+
+    /**
+     * A single prefetch of the table of contents, all of its articles and optionally their audio.
+     * All of it runs on the UI thread, which is what the download managers require.
+     */
+    private class Prefetch {
+        private final JobParameters mParams;
+        private final NewsSiteConfiguration mConfig;
+        private final boolean mSynthesize;
+        private final DownloadManager<TableOfContents> mTocDownloader;
+        private final DownloadManager<Article> mArticleDownloader;
+        private final Handler mHandler = new Handler();
+        private TextToSpeech mTextToSpeech;
+        private boolean mCancelled;
+
+        Prefetch(JobParameters params, NewsSiteConfiguration config, boolean synthesize) {
+            mParams = params;
+            mConfig = config;
+            mSynthesize = synthesize;
+            mTocDownloader = new DownloadManager<>(EditionPrefetchService.this,
+                    config.getTocScrapingJavascript(), config.getResourceFilter());
+            mArticleDownloader = new DownloadManager<>(EditionPrefetchService.this,
+                    config.getArticleScrapingJavascript(), config.getResourceFilter());
+        }
+
+        void start() {
+            // Always download a fresh table of contents, the one in the store may be outdated.
+            final TableOfContents toc = new TableOfContents(mConfig.getTableOfContentsURL());
+            mTocDownloader.scheduleForDownload(toc, Priority.REFRESH,
+                    new WebResourceCompleted<TableOfContents>() {
+                @Override
+                public void onSuccess(TableOfContents resource) {
+                    EditionStore.getInstance().putTableOfContents(toc);
+                    downloadArticles(toc);
+                }
+
+                @Override
+                public void onError(TableOfContents resource, String message) {
+                    LogHelper.w(TAG, "Could not prefetch the table of contents: ", message);
+                    finish(true);
+                }
+            });
+        }
+
+        private void downloadArticles(final TableOfContents toc) {
+            final List<Article> articles = new ArrayList<>();
+            for (String url : toc.getTitlesAndURLs().values()) {
+                articles.add(EditionStore.getInstance().getArticle(url));
+            }
+            if (articles.isEmpty()) {
+                finish(false);
+                return;
+            }
+
+            // Articles that were heard already aren't worth the data, nor the synthesis. They are
+            // still listed in the edition, to be listened to again.
+            ListeningHistory history = ListeningHistory.getInstance(EditionPrefetchService.this);
+            List<Article> unheard = new ArrayList<>();
+            for (Article article : articles) {
+                if (!history.isPlayed(article.getUrl())) {
+                    unheard.add(article);
+                }
+            }
+            if (unheard.isEmpty()) {
+                writeEdition(toc, articles);
+                return;
+            }
+
+            final int[] remaining = {unheard.size()};
+            WebResourceCompleted<Article> callback = new WebResourceCompleted<Article>() {
+                @Override
+                public void onSuccess(Article resource) {
+                    onArticleDone();
+                }
+
+                @Override
+                public void onError(Article resource, String message) {
+                    // A single article failing isn't worth retrying the whole prefetch for, it
+                    // will be downloaded on demand.
+                    LogHelper.w(TAG, "Could not prefetch ", resource, ": ", message);
+                    onArticleDone();
+                }
+
+                private void onArticleDone() {
+                    if (--remaining[0] == 0) {
+                        writeEdition(toc, articles);
+                    }
+                }
+            };
+            for (Article article : unheard) {
+                mArticleDownloader.scheduleForDownload(article, Priority.PREFETCH, callback);
+            }
+        }
+
+        private void writeEdition(TableOfContents toc, final List<Article> articles) {
+            final List<EditionFile.Entry> entries = createEntries(toc, articles);
+            final String tocUrl = toc.getUrl();
+
+            new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... params) {
+                    File file = EditionStore.getEditionFile(EditionPrefetchService.this);
+                    try {
+                        EditionFile.write(file, tocUrl, System.currentTimeMillis(), entries);
+                        EditionStore.getInstance().openEdition(file);
+                    } catch (IOException e) {
+                        LogHelper.w(TAG, e, "Could not write the edition");
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void onPostExecute(Void result) {
+                    if (mSynthesize) {
+                        synthesize(articles);
+                    } else {
+                        finish(false);
+                    }
+                }
+            }.execute();
+        }
+
+        private void synthesize(final List<Article> articles) {
+            if (mCancelled) {
+                return;
+            }
+            mTextToSpeech = new TextToSpeech(EditionPrefetchService.this, new TextToSpeech.OnInitListener() {
+                @Override
+                public void onInit(int status) {
+                    if (mCancelled) {
+                        return;
+                    }
+                    int available = status == TextToSpeech.SUCCESS ?
+                            SpeechEngine.configureVoice(mTextToSpeech, mConfig.getLocale()) :
+                            TextToSpeech.LANG_NOT_SUPPORTED;
+                    if (available == TextToSpeech.LANG_NOT_SUPPORTED ||
+                            available == TextToSpeech.LANG_MISSING_DATA) {
+                        LogHelper.w(TAG, "Text-to-speech unavailable, not synthesizing upfront");
+                        finish(false);
+                        return;
+                    }
+
+                    // Synthesize the same utterances as the playback will speak.
+                    List<String> texts = new ArrayList<>();
+                    ListeningHistory history =
+                            ListeningHistory.getInstance(EditionPrefetchService.this);
+                    for (Article article : articles) {
+                        if (history.isPlayed(article.getUrl())) {
+                            continue;
+                        }
+                        texts.addAll(SpeechScript.create(article.getText(), mConfig.getLocale(),
+                                TextToSpeech.getMaxSpeechInputLength()).getUtterances());
+                    }
+                    SpeechCache cache = new SpeechCache(EditionPrefetchService.this);
+                    cache.synthesize(mTextToSpeech, texts, mConfig.getLocale(), new Runnable() {
+                        @Override
+                        public void run() {
+                            // Called from the text-to-speech thread
+                            mHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    finish(false);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        private void finish(boolean reschedule) {
+            if (mCancelled) {
+                return;
+            }
+            LogHelper.d(TAG, "Prefetch finished, reschedule=", reschedule);
+            release();
+            mPrefetch = null;
+            jobFinished(mParams, reschedule);
+        }
+
+        void cancel() {
+            release();
+        }
+
+        private void release() {
+            mCancelled = true;
+            mTocDownloader.destroy();
+            mArticleDownloader.destroy();
+            if (mTextToSpeech != null) {
+                mTextToSpeech.shutdown();
+            }
+        }
+    }
+}
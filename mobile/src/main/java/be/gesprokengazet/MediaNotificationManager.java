@@ -28,6 +28,9 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
@@ -38,6 +41,7 @@ import android.support.v4.media.app.NotificationCompat.MediaStyle;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.TextUtils;
 
 import be.gesprokengazet.ui.MusicPlayerActivity;
 import be.gesprokengazet.utils.LogHelper;
@@ -55,6 +59,8 @@ public class MediaNotificationManager extends BroadcastReceiver {
 
     private static final int NOTIFICATION_ID = 412;
     private static final int REQUEST_CODE = 100;
+    // Changes that arrive within this time are posted as a single update, in milliseconds
+    private static final long UPDATE_DELAY = 250;
 
     public static final String ACTION_PAUSE = "be.gesprokengazet.pause";
     public static final String ACTION_PLAY = "be.gesprokengazet.play";
@@ -85,6 +91,18 @@ public class MediaNotificationManager extends BroadcastReceiver {
 
     private boolean mStarted = false;
 
+    // What the posted notification shows, it is only posted again when that changes.
+    private NotificationModel mPostedModel;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdate = new Runnable() {
+        @Override
+        public void run() {
+            updateNotification();
+        }
+    };
+    // Placeholder while the album art is fetched, decoded once
+    private Bitmap mDefaultArt;
+
     public MediaNotificationManager(MusicService service) throws RemoteException {
         mService = service;
         updateSessionToken();
@@ -125,8 +143,10 @@ public class MediaNotificationManager extends BroadcastReceiver {
             mPlaybackState = mController.getPlaybackState();
 
             // The notification must be updated after setting started to true
-            Notification notification = createNotification();
+            NotificationModel model = createModel();
+            Notification notification = model == null ? null : createNotification(model);
             if (notification != null) {
+                mPostedModel = model;
                 mController.registerCallback(mCb);
                 IntentFilter filter = new IntentFilter();
                 filter.addAction(ACTION_NEXT);
@@ -149,6 +169,8 @@ public class MediaNotificationManager extends BroadcastReceiver {
     public void stopNotification() {
         if (mStarted) {
             mStarted = false;
+            mHandler.removeCallbacks(mUpdate);
+            mPostedModel = null;
             mController.unregisterCallback(mCb);
             try {
                 mNotificationManager.cancel(NOTIFICATION_ID);
@@ -231,10 +253,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
                     state.getState() == PlaybackStateCompat.STATE_NONE) {
                 stopNotification();
             } else {
-                Notification notification = createNotification();
-                if (notification != null) {
-                    mNotificationManager.notify(NOTIFICATION_ID, notification);
-                }
+                scheduleUpdate();
             }
         }
 
@@ -242,10 +261,13 @@ public class MediaNotificationManager extends BroadcastReceiver {
         public void onMetadataChanged(MediaMetadataCompat metadata) {
             mMetadata = metadata;
             LogHelper.d(TAG, "Received new metadata ", metadata);
-            Notification notification = createNotification();
-            if (notification != null) {
-                mNotificationManager.notify(NOTIFICATION_ID, notification);
-            }
+            scheduleUpdate();
+        }
+
+        @Override
+        public void onExtrasChanged(Bundle extras) {
+            // The name of the Cast device is shown
+            scheduleUpdate();
         }
 
         @Override
@@ -260,14 +282,35 @@ public class MediaNotificationManager extends BroadcastReceiver {
         }
     };
 
-    private Notification createNotification() {
-        LogHelper.d(TAG, "updateNotificationMetadata. mMetadata=" + mMetadata);
+    private void scheduleUpdate() {
+        // Playback state changes come in bursts, e.g. when an article starts. Only the last one
+        // matters.
+        mHandler.removeCallbacks(mUpdate);
+        mHandler.postDelayed(mUpdate, UPDATE_DELAY);
+    }
+
+    private void updateNotification() {
+        if (!mStarted) {
+            return;
+        }
+        NotificationModel model = createModel();
+        if (model == null || model.equals(mPostedModel)) {
+            return;
+        }
+        LogHelper.d(TAG, "updateNotification. model=", model);
+        mPostedModel = model;
+        mNotificationManager.notify(NOTIFICATION_ID, createNotification(model));
+    }
+
+    /**
+     * @return what the notification should show, or null if there's nothing to show yet.
+     */
+    private NotificationModel createModel() {
         if (mMetadata == null || mPlaybackState == null) {
             return null;
         }
 
         MediaDescriptionCompat description = mMetadata.getDescription();
-
         String fetchArtUrl = null;
         Bitmap art = null;
         if (description.getIconUri() != null) {
@@ -279,11 +322,29 @@ public class MediaNotificationManager extends BroadcastReceiver {
             if (art == null) {
                 fetchArtUrl = artUrl;
                 // use a placeholder art while the remote art is being downloaded
-                art = BitmapFactory.decodeResource(mService.getResources(),
-                        R.drawable.ic_default_art);
+                if (mDefaultArt == null) {
+                    mDefaultArt = BitmapFactory.decodeResource(mService.getResources(),
+                            R.drawable.ic_default_art);
+                }
+                art = mDefaultArt;
             }
         }
 
+        String castName = null;
+        if (mController != null && mController.getExtras() != null) {
+            castName = mController.getExtras().getString(MusicService.EXTRA_CONNECTED_CAST);
+        }
+        long actions = mPlaybackState.getActions();
+        return new NotificationModel(description, art, fetchArtUrl,
+                mPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING,
+                (actions & PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS) != 0,
+                (actions & PlaybackStateCompat.ACTION_SKIP_TO_NEXT) != 0,
+                castName);
+    }
+
+    private Notification createNotification(NotificationModel model) {
+        LogHelper.d(TAG, "updateNotificationMetadata. mMetadata=" + mMetadata);
+
         // Notification channels are only supported on Android O+.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             createNotificationChannel();
@@ -292,7 +353,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
         final NotificationCompat.Builder notificationBuilder =
                 new NotificationCompat.Builder(mService, CHANNEL_ID);
 
-        final int playPauseButtonPosition = addActions(notificationBuilder);
+        final int playPauseButtonPosition = addActions(notificationBuilder, model);
         notificationBuilder
                 .setStyle(new MediaStyle()
                         // show only play/pause in compact view
@@ -305,36 +366,34 @@ public class MediaNotificationManager extends BroadcastReceiver {
                 .setSmallIcon(R.drawable.ic_notification)
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
                 .setOnlyAlertOnce(true)
-                .setContentIntent(createContentIntent(description))
-                .setContentTitle(description.getTitle())
-                .setContentText(description.getSubtitle())
-                .setLargeIcon(art);
-
-        if (mController != null && mController.getExtras() != null) {
-            String castName = mController.getExtras().getString(MusicService.EXTRA_CONNECTED_CAST);
-            if (castName != null) {
-                String castInfo = mService.getResources()
-                        .getString(R.string.casting_to_device, castName);
-                notificationBuilder.setSubText(castInfo);
-                notificationBuilder.addAction(R.drawable.ic_close_black_24dp,
-                        mService.getString(R.string.stop_casting), mStopCastIntent);
-            }
+                .setContentIntent(createContentIntent(model.mDescription))
+                .setContentTitle(model.mTitle)
+                .setContentText(model.mSubtitle)
+                .setLargeIcon(model.mArt);
+
+        if (model.mCastName != null) {
+            String castInfo = mService.getResources()
+                    .getString(R.string.casting_to_device, model.mCastName);
+            notificationBuilder.setSubText(castInfo);
+            notificationBuilder.addAction(R.drawable.ic_close_black_24dp,
+                    mService.getString(R.string.stop_casting), mStopCastIntent);
         }
 
         setNotificationPlaybackState(notificationBuilder);
-        if (fetchArtUrl != null) {
-            fetchBitmapFromURLAsync(fetchArtUrl, notificationBuilder);
+        if (model.mFetchArtUrl != null) {
+            fetchBitmapFromURLAsync(model.mFetchArtUrl);
         }
 
         return notificationBuilder.build();
     }
 
-    private int addActions(final NotificationCompat.Builder notificationBuilder) {
+    private int addActions(final NotificationCompat.Builder notificationBuilder,
+                           NotificationModel model) {
         LogHelper.d(TAG, "updatePlayPauseAction");
 
         int playPauseButtonPosition = 0;
         // If skip to previous action is enabled
-        if ((mPlaybackState.getActions() & PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS) != 0) {
+        if (model.mHasPrevious) {
             notificationBuilder.addAction(R.drawable.ic_skip_previous_white_24dp,
                     mService.getString(R.string.label_previous), mPreviousIntent);
 
@@ -349,7 +408,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
         final String label;
         final int icon;
         final PendingIntent intent;
-        if (mPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING) {
+        if (model.mPlaying) {
             label = mService.getString(R.string.label_pause);
             icon = R.drawable.uamp_ic_pause_white_24dp;
             intent = mPauseIntent;
@@ -361,7 +420,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
         notificationBuilder.addAction(new NotificationCompat.Action(icon, label, intent));
 
         // If skip to next action is enabled
-        if ((mPlaybackState.getActions() & PlaybackStateCompat.ACTION_SKIP_TO_NEXT) != 0) {
+        if (model.mHasNext) {
             notificationBuilder.addAction(R.drawable.ic_skip_next_white_24dp,
                     mService.getString(R.string.label_next), mNextIntent);
         }
@@ -381,18 +440,16 @@ public class MediaNotificationManager extends BroadcastReceiver {
         builder.setOngoing(mPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING);
     }
 
-    private void fetchBitmapFromURLAsync(final String bitmapUrl,
-                                         final NotificationCompat.Builder builder) {
+    private void fetchBitmapFromURLAsync(final String bitmapUrl) {
         AlbumArtCache.getInstance().fetch(bitmapUrl, new AlbumArtCache.FetchListener() {
             @Override
             public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
                 if (mMetadata != null && mMetadata.getDescription().getIconUri() != null &&
                         mMetadata.getDescription().getIconUri().toString().equals(artUrl)) {
-                    // If the media is still the same, update the notification:
+                    // If the media is still the same, update the notification, the art is in
+                    // the cache now.
                     LogHelper.d(TAG, "fetchBitmapFromURLAsync: set bitmap to ", artUrl);
-                    builder.setLargeIcon(bitmap);
-                    addActions(builder);
-                    mNotificationManager.notify(NOTIFICATION_ID, builder.build());
+                    updateNotification();
                 }
             }
         });
@@ -415,4 +472,61 @@ public class MediaNotificationManager extends BroadcastReceiver {
             mNotificationManager.createNotificationChannel(notificationChannel);
         }
     }
+
+    /**
+     * The fields of the notification that are visible to the user.
+     */
+    private static final class NotificationModel {
+        private final MediaDescriptionCompat mDescription;
+        private final String mTitle;
+        private final String mSubtitle;
+        private final Bitmap mArt;
+        private final String mFetchArtUrl;
+        private final boolean mPlaying;
+        private final boolean mHasPrevious;
+        private final boolean mHasNext;
+        private final String mCastName;
+
+        NotificationModel(MediaDescriptionCompat description, Bitmap art, String fetchArtUrl,
+                          boolean playing, boolean hasPrevious, boolean hasNext,
+                          String castName) {
+            mDescription = description;
+            mTitle = description.getTitle() == null ? null : description.getTitle().toString();
+            mSubtitle = description.getSubtitle() == null ?
+                    null : description.getSubtitle().toString();
+            mArt = art;
+            mFetchArtUrl = fetchArtUrl;
+            mPlaying = playing;
+            mHasPrevious = hasPrevious;
+            mHasNext = hasNext;
+            mCastName = castName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NotificationModel)) {
+                return false;
+            }
+            NotificationModel other = (NotificationModel) o;
+            // Bitmaps come from caches, so the same art is the same instance.
+            return TextUtils.equals(mDescription.getMediaId(), other.mDescription.getMediaId()) &&
+                    TextUtils.equals(mTitle, other.mTitle) &&
+                    TextUtils.equals(mSubtitle, other.mSubtitle) &&
+                    mArt == other.mArt &&
+                    mPlaying == other.mPlaying &&
+                    mHasPrevious == other.mHasPrevious &&
+                    mHasNext == other.mHasNext &&
+                    TextUtils.equals(mCastName, other.mCastName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mTitle == null ? 0 : mTitle.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mTitle + " playing=" + mPlaying + " cast=" + mCastName;
+        }
+    }
 }
@@ -33,21 +33,43 @@ import android.support.v4.media.session.MediaButtonReceiver;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
+import be.gesprokengazet.model.ListeningHistory;
 import be.gesprokengazet.model.MusicProvider;
+import be.gesprokengazet.model.MusicProviderSource;
 import be.gesprokengazet.model.NewsSource;
+import be.gesprokengazet.news.Article;
+import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionStore;
+import be.gesprokengazet.news.NewsSiteConfiguration;
 import be.gesprokengazet.news.VRTNewsSiteConfiguration;
+import be.gesprokengazet.playback.ArticleAudio;
+import be.gesprokengazet.playback.AudioServer;
+import be.gesprokengazet.playback.CastPlayback;
+import be.gesprokengazet.playback.Playback;
 import be.gesprokengazet.playback.PlaybackManager;
 import be.gesprokengazet.playback.QueueManager;
+import be.gesprokengazet.playback.SpeechEngine;
 import be.gesprokengazet.playback.TextToSpeechPlayback;
 import be.gesprokengazet.ui.NowPlayingActivity;
 import be.gesprokengazet.utils.CarHelper;
+import be.gesprokengazet.utils.HttpHelper;
 import be.gesprokengazet.utils.LogHelper;
+import be.gesprokengazet.utils.MetricsRegistry;
+import be.gesprokengazet.utils.TvHelper;
 import be.gesprokengazet.utils.WearHelper;
 import com.google.android.gms.cast.framework.CastContext;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.SessionManager;
+import com.google.android.gms.cast.framework.SessionManagerListener;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+
+import java.io.IOException;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_EMPTY_ROOT;
 import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_ROOT;
@@ -138,11 +160,25 @@ public class MusicService extends MediaBrowserServiceCompat implements
     private Bundle mSessionExtras;
     private final DelayedStopHandler mDelayedStopHandler = new DelayedStopHandler(this);
     private PackageValidator mPackageValidator;
+    // Browsers waiting for the first tracks of the catalog
+    private final List<Runnable> mPendingChildren = new ArrayList<>();
 
     private boolean mIsConnectedToCar;
     private BroadcastReceiver mCarConnectionReceiver;
     private NewsSource newsSource;
     private TextToSpeechPlayback playback;
+    private DownloadManager<Article> mArticleDownloads;
+    // Serves the spoken articles to Cast receivers, only while casting
+    private final AudioServer mAudioServer = new AudioServer();
+    private ArticleAudio mArticleAudio;
+    private SessionManager mCastSessionManager;
+    private SessionManagerListener<CastSession> mCastSessionManagerListener;
+
+    // Startup is measured in the MetricsRegistry: "startup.<phase>" for the phases of onCreate,
+    // and "startup.firstChildren" up to the first catalog that is sent to a browser.
+    private long mCreateStart; // ns
+    private long mPhaseStart; // ns
+    private boolean mFirstChildrenSent;
 
     /*
      * (non-Javadoc)
@@ -152,16 +188,46 @@ public class MusicService extends MediaBrowserServiceCompat implements
     public void onCreate() {
         super.onCreate();
         LogHelper.d(TAG, "onCreate");
-
-        newsSource = new NewsSource(this, new VRTNewsSiteConfiguration(this));
-        mMusicProvider = new MusicProvider(newsSource);
+        mCreateStart = System.nanoTime();
+        mPhaseStart = mCreateStart;
+
+        // Binding to the text-to-speech engine takes long, start it before anything else.
+        NewsSiteConfiguration newsSite = new VRTNewsSiteConfiguration(this);
+        SpeechEngine speechEngine = new SpeechEngine(this, newsSite.getLocale());
+        endPhase("speechEngine");
+
+        HttpHelper.install(this);
+
+        // Opening the edition only maps it, its content is read as the catalog asks for it.
+        EditionStore.getInstance().openEdition(EditionStore.getEditionFile(this));
+        HttpHelper.preconnect(newsSite.getTableOfContentsURL());
+        newsSource = new NewsSource(this, newsSite);
+        mMusicProvider = new MusicProvider(getCatalogSource(), ListeningHistory.getInstance(this));
+        mMusicProvider.setOnCatalogChangedListener(new MusicProvider.OnCatalogChangedListener() {
+            @Override
+            public void onCatalogChanged() {
+                // Answer the browsers that were waiting for the first news, and have the others
+                // reload to see the news that was added.
+                List<Runnable> pending = new ArrayList<>(mPendingChildren);
+                mPendingChildren.clear();
+                for (Runnable sendChildren : pending) {
+                    sendChildren.run();
+                }
+                notifyChildrenChanged(MEDIA_ID_ROOT);
+            }
+        });
 
         // To make the app more responsive, fetch and cache catalog information now.
         // This can help improve the response time in the method
         // {@link #onLoadChildren(String, Result<List<MediaItem>>) onLoadChildren()}.
         mMusicProvider.retrieveMediaAsync(null /* Callback */);
 
+        // Keep the news prefetched in the background, for the next time we're started.
+        EditionPrefetchService.schedule(this);
+        endPhase("catalog");
+
         mPackageValidator = new PackageValidator(this);
+        endPhase("packageValidator");
 
         QueueManager queueManager = new QueueManager(mMusicProvider, getResources(),
                 new QueueManager.MetadataUpdateListener() {
@@ -189,8 +255,15 @@ public class MusicService extends MediaBrowserServiceCompat implements
                     }
                 });
 
-        playback = new TextToSpeechPlayback(this, mMusicProvider, new VRTNewsSiteConfiguration(this), queueManager);
+        // Reading locally and casting share the downloads of the articles.
+        mArticleDownloads = new DownloadManager<>(this, newsSite.getArticleScrapingJavascript(),
+                newsSite.getResourceFilter());
+        mArticleAudio = new ArticleAudio(this, newsSite, speechEngine, mArticleDownloads,
+                mAudioServer);
+        playback = new TextToSpeechPlayback(this, mMusicProvider, newsSite, speechEngine,
+                mArticleDownloads, queueManager);
         mPlaybackManager = new PlaybackManager(this, getResources(), mMusicProvider, queueManager, playback);
+        endPhase("playback");
 
         // Start a new MediaSession
         mSession = new MediaSessionCompat(this, "MusicService");
@@ -212,14 +285,57 @@ public class MusicService extends MediaBrowserServiceCompat implements
         mSession.setExtras(mSessionExtras);
 
         mPlaybackManager.updatePlaybackState(null);
+        endPhase("session");
+
+        int playServicesAvailable =
+                GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(this);
+        if (!TvHelper.isTvUiMode(this) && playServicesAvailable == ConnectionResult.SUCCESS) {
+            mCastSessionManager = CastContext.getSharedInstance(this).getSessionManager();
+            mCastSessionManagerListener = new CastSessionManagerListener();
+            mCastSessionManager.addSessionManagerListener(mCastSessionManagerListener,
+                    CastSession.class);
+        }
+        endPhase("cast");
 
         try {
             mMediaNotificationManager = new MediaNotificationManager(this);
         } catch (RemoteException e) {
             throw new IllegalStateException("Could not create a MediaNotificationManager", e);
         }
+        endPhase("notification");
 
         registerCarConnectionReceiver();
+        recordSince("startup.onCreate", mCreateStart);
+    }
+
+    /**
+     * @return where the catalog comes from. Benchmarks replace the news site by a fixed catalog.
+     */
+    MusicProviderSource getCatalogSource() {
+        return newsSource;
+    }
+
+    private void endPhase(String phase) {
+        mPhaseStart = recordSince("startup." + phase, mPhaseStart);
+    }
+
+    /**
+     * Records the time since the given {@link System#nanoTime()} in the given timer.
+     *
+     * @return the time it was recorded at.
+     */
+    private static long recordSince(String timer, long start) {
+        long now = System.nanoTime();
+        MetricsRegistry.getInstance().timer(timer)
+                .record(TimeUnit.NANOSECONDS.toMillis(now - start));
+        return now;
+    }
+
+    private void onChildrenSent() {
+        if (!mFirstChildrenSent) {
+            mFirstChildrenSent = true;
+            recordSince("startup.firstChildren", mCreateStart);
+        }
     }
 
     /**
@@ -266,16 +382,23 @@ public class MusicService extends MediaBrowserServiceCompat implements
      */
     @Override
     public void onDestroy() {
-        LogHelper.d(TAG, "onDestroy");
+        LogHelper.d(TAG, "onDestroy, HTTP traffic by host: ", HttpHelper.getStats());
         unregisterCarConnectionReceiver();
         // Service is being killed, so make sure we release our resources
         mPlaybackManager.handleStopRequest(null);
         mMediaNotificationManager.stopNotification();
 
+        if (mCastSessionManager != null) {
+            mCastSessionManager.removeSessionManagerListener(mCastSessionManagerListener,
+                    CastSession.class);
+        }
+        mAudioServer.stop();
+
         mDelayedStopHandler.removeCallbacksAndMessages(null);
         mSession.release();
         newsSource.destroy();
         playback.destroy();
+        mArticleDownloads.destroy();
     }
 
     @Override
@@ -318,16 +441,33 @@ public class MusicService extends MediaBrowserServiceCompat implements
         LogHelper.d(TAG, "OnLoadChildren: parentMediaId=", parentMediaId);
         if (MEDIA_ID_EMPTY_ROOT.equals(parentMediaId)) {
             result.sendResult(new ArrayList<MediaItem>());
-        } else if (mMusicProvider.isInitialized()) {
-            // if music library is ready, return immediately
+        } else if (mMusicProvider.isInitialized() || mMusicProvider.hasMusic()) {
+            // if (part of) the music library is ready, return immediately. Browsers are notified
+            // when more of it becomes available.
             result.sendResult(mMusicProvider.getChildren(parentMediaId, getResources()));
+            onChildrenSent();
+            mMusicProvider.retrieveMediaAsync(null /* Callback */);
         } else {
-            // otherwise, only return results when the music library is retrieved
+            // otherwise, only return results when the first of the music library is retrieved
             result.detach();
+            final Runnable sendChildren = new Runnable() {
+                private boolean mSent;
+
+                @Override
+                public void run() {
+                    if (!mSent) {
+                        mSent = true;
+                        result.sendResult(mMusicProvider.getChildren(parentMediaId, getResources()));
+                        onChildrenSent();
+                    }
+                }
+            };
+            mPendingChildren.add(sendChildren);
             mMusicProvider.retrieveMediaAsync(new MusicProvider.Callback() {
                 @Override
                 public void onMusicCatalogReady(boolean success) {
-                    result.sendResult(mMusicProvider.getChildren(parentMediaId, getResources()));
+                    mPendingChildren.remove(sendChildren);
+                    sendChildren.run();
                 }
             });
         }
@@ -390,6 +530,72 @@ public class MusicService extends MediaBrowserServiceCompat implements
         unregisterReceiver(mCarConnectionReceiver);
     }
 
+    /**
+     * Session Manager Listener responsible for switching the Playback instances
+     * depending on whether it is connected to a remote player.
+     */
+    private class CastSessionManagerListener implements SessionManagerListener<CastSession> {
+
+        @Override
+        public void onSessionEnded(CastSession session, int error) {
+            LogHelper.d(TAG, "onSessionEnded");
+            mSessionExtras.remove(EXTRA_CONNECTED_CAST);
+            mSession.setExtras(mSessionExtras);
+            mPlaybackManager.switchToPlayback(playback, false);
+            mAudioServer.stop();
+        }
+
+        @Override
+        public void onSessionResumed(CastSession session, boolean wasSuspended) {
+        }
+
+        @Override
+        public void onSessionStarted(CastSession session, String sessionId) {
+            // In case we are casting, send the device name as an extra on MediaSession metadata.
+            mSessionExtras.putString(EXTRA_CONNECTED_CAST,
+                    session.getCastDevice().getFriendlyName());
+            mSession.setExtras(mSessionExtras);
+            // The receiver fetches the spoken articles from us.
+            try {
+                mAudioServer.start();
+            } catch (IOException e) {
+                LogHelper.e(TAG, e, "Could not start serving audio");
+            }
+            Playback castPlayback = new CastPlayback(mMusicProvider, MusicService.this,
+                    mArticleAudio);
+            mPlaybackManager.switchToPlayback(castPlayback, true);
+        }
+
+        @Override
+        public void onSessionStarting(CastSession session) {
+        }
+
+        @Override
+        public void onSessionStartFailed(CastSession session, int error) {
+        }
+
+        @Override
+        public void onSessionEnding(CastSession session) {
+            // This is our final chance to update the underlying stream position
+            // In onSessionEnded(), the underlying CastPlayback#mRemoteMediaClient
+            // is disconnected and hence we update our local value of stream position
+            // to the latest position.
+            mPlaybackManager.getPlayback().updateLastKnownStreamPosition();
+        }
+
+        @Override
+        public void onSessionResuming(CastSession session, String sessionId) {
+        }
+
+        @Override
+        public void onSessionResumeFailed(CastSession session, int error) {
+        }
+
+        @Override
+        public void onSessionSuspended(CastSession session, int reason) {
+        }
+    }
+
     /**
      * A simple handler that stops the service if playback is not active (playing)
      */
@@ -0,0 +1,389 @@
+package be.gesprokengazet.model;
+
+import android.content.Context;
+
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the user listened to, kept across restarts of the service: which articles were played to
+ * the end, where reading stopped in the others, and the favorites.
+ * <p>
+ * The history is read once in the background, after that it is kept in memory. Changes are
+ * appended to a log in the background, which is compacted to the current state once it has grown
+ * enough. Resume points change with every sentence, so only the last one of a track is appended:
+ * when another track or change comes along, on {@link #flush()}, or once in a while.
+ */
+public class ListeningHistory {
+    private static final String TAG = LogHelper.makeLogTag(ListeningHistory.class);
+
+    private static final String FILE_NAME = "history.log";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // News gets old quickly, only favorites are remembered longer than this.
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    // The log is compacted once it has at least this many records, and twice as many as needed:
+    // a track takes at most two records.
+    private static final int MIN_COMPACTION_RECORDS = 256;
+    // A resume point is written at least this often while reading on, so little is lost if the
+    // process dies.
+    private static final long RESUME_POINT_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+
+    private static final String PLAYED = "P";
+    private static final String RESUME_POINT = "R";
+    private static final String FAVORITE = "F";
+
+    private static ListeningHistory sInstance;
+
+    private final File mFile;
+    private final Executor mExecutor;
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+
+    // Guarded by this once loaded
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private int mRecords;
+    // The last resume point, if it wasn't written yet
+    private String mPendingResumePoint;
+    private String mPendingMusicId;
+    private long mResumePointWritten;
+
+    /**
+     * @return the history of the app, it is shared by the whole process.
+     */
+    public static synchronized ListeningHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ListeningHistory(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Reads the history from the given file and writes changes to it, both from the given
+     * executor. It must run tasks one at a time, in order. Whoever asks for the history before it
+     * is read waits for it.
+     */
+    ListeningHistory(File file, Executor executor) {
+        mFile = file;
+        mExecutor = executor;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read();
+                } finally {
+                    mLoaded.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether the given track was played to its end.
+     */
+    public synchronized boolean isPlayed(String musicId) {
+        awaitLoaded();
+        Entry entry = mEntries.get(musicId);
+        return entry != null && entry.mPlayed;
+    }
+
+    public void setPlayed(String musicId) {
+        append(PLAYED, musicId, null);
+    }
+
+    /**
+     * @return the index of the utterance to continue reading the given track from, 0 when it
+     * wasn't started or was played to its end.
+     */
+    public synchronized int getResumePoint(String musicId) {
+        awaitLoaded();
+        Entry entry = mEntries.get(musicId);
+        return entry == null ? 0 : entry.mResumePoint;
+    }
+
+    public void setResumePoint(String musicId, int utteranceIndex) {
+        append(RESUME_POINT, musicId, String.valueOf(utteranceIndex));
+    }
+
+    public synchronized boolean isFavorite(String musicId) {
+        awaitLoaded();
+        Entry entry = mEntries.get(musicId);
+        return entry != null && entry.mFavorite;
+    }
+
+    public void setFavorite(String musicId, boolean favorite) {
+        append(FAVORITE, musicId, favorite ? "1" : "0");
+    }
+
+    public synchronized Set<String> getFavorites() {
+        awaitLoaded();
+        Set<String> favorites = new HashSet<>();
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (entry.getValue().mFavorite) {
+                favorites.add(entry.getKey());
+            }
+        }
+        return favorites;
+    }
+
+    /**
+     * Writes the last resume point, if it wasn't yet. Call this when reading stops.
+     */
+    public void flush() {
+        final List<String> records = new ArrayList<>(1);
+        synchronized (this) {
+            if (mPendingResumePoint == null) {
+                return;
+            }
+            records.add(mPendingResumePoint);
+            mPendingResumePoint = null;
+            mPendingMusicId = null;
+            mResumePointWritten = System.currentTimeMillis();
+            mRecords++;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(records);
+            }
+        });
+    }
+
+    private void append(String type, String musicId, String value) {
+        if (musicId == null || musicId.indexOf('\n') >= 0) {
+            return; // Can't be logged
+        }
+        long now = System.currentTimeMillis();
+        String record = format(type, now, value, musicId);
+        final List<String> records = new ArrayList<>(2);
+        final List<String> compacted;
+        awaitLoaded();
+        synchronized (this) {
+            if (!apply(record)) {
+                return;
+            }
+            if (mPendingResumePoint != null && !(musicId.equals(mPendingMusicId) &&
+                    (RESUME_POINT.equals(type) || PLAYED.equals(type)))) {
+                records.add(mPendingResumePoint);
+            }
+            mPendingResumePoint = null;
+            mPendingMusicId = null;
+            if (RESUME_POINT.equals(type) && now - mResumePointWritten < RESUME_POINT_INTERVAL) {
+                mPendingResumePoint = record;
+                mPendingMusicId = musicId;
+            } else {
+                records.add(record);
+                if (RESUME_POINT.equals(type)) {
+                    mResumePointWritten = now;
+                }
+            }
+            if (records.isEmpty()) {
+                return;
+            }
+            mRecords += records.size();
+            compacted = mRecords >= MIN_COMPACTION_RECORDS && mRecords >= 4 * mEntries.size() ?
+                    snapshot() : null;
+            if (compacted != null) {
+                mRecords = compacted.size();
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The records are part of the compacted state. If compacting fails, the old log
+                // is still in place and the records are appended to it instead.
+                if (compacted == null || !compact(compacted)) {
+                    write(records);
+                }
+            }
+        });
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            // Keep the interrupt for the caller
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies a record to the state in memory.
+     *
+     * @return whether the record is valid.
+     */
+    private boolean apply(String record) {
+        String[] fields = record.split("\t", 4);
+        if (fields.length != 4 || !(PLAYED.equals(fields[0]) ||
+                RESUME_POINT.equals(fields[0]) || FAVORITE.equals(fields[0]))) {
+            return false;
+        }
+        long time;
+        int resumePoint = 0;
+        try {
+            time = Long.parseLong(fields[1]);
+            if (RESUME_POINT.equals(fields[0])) {
+                resumePoint = Integer.parseInt(fields[2]);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        String musicId = fields[3];
+        Entry entry = mEntries.get(musicId);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(musicId, entry);
+        }
+        entry.mTime = Math.max(entry.mTime, time);
+        if (PLAYED.equals(fields[0])) {
+            entry.mPlayed = true;
+            entry.mResumePoint = 0;
+        } else if (RESUME_POINT.equals(fields[0])) {
+            // Listening again to something that was played before
+            entry.mPlayed = false;
+            entry.mResumePoint = resumePoint;
+        } else {
+            entry.mFavorite = "1".equals(fields[2]);
+        }
+        return true;
+    }
+
+    /**
+     * @return the records that restore the current state, leaving out what expired.
+     */
+    private List<String> snapshot() {
+        long expired = System.currentTimeMillis() - MAX_AGE;
+        List<String> records = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Entry>> i = mEntries.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, Entry> mapEntry = i.next();
+            Entry entry = mapEntry.getValue();
+            if (!entry.mFavorite && (entry.mTime < expired ||
+                    (!entry.mPlayed && entry.mResumePoint == 0))) {
+                i.remove();
+                continue;
+            }
+            String musicId = mapEntry.getKey();
+            if (entry.mPlayed) {
+                records.add(format(PLAYED, entry.mTime, null, musicId));
+            } else if (entry.mResumePoint > 0) {
+                records.add(format(RESUME_POINT, entry.mTime,
+                        String.valueOf(entry.mResumePoint), musicId));
+            }
+            if (entry.mFavorite) {
+                records.add(format(FAVORITE, entry.mTime, "1", musicId));
+            }
+        }
+        return records;
+    }
+
+    private static String format(String type, long time, String value, String musicId) {
+        return type + '\t' + time + '\t' + (value == null ? "" : value) + '\t' + musicId;
+    }
+
+    // Runs on the executor. The state is only used once this is done, see awaitLoaded.
+    private void read() {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), UTF8));
+        } catch (FileNotFoundException e) {
+            return; // Nothing listened to yet
+        }
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // A record that was cut short by the process dying is skipped
+                if (apply(line)) {
+                    mRecords++;
+                }
+            }
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not read all of the listening history");
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Read already
+            }
+        }
+    }
+
+    // Runs on the executor
+    private void write(List<String> records) {
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), UTF8);
+            try {
+                // Records start on a new line, a record that was cut short by the process dying
+                // doesn't take the next one with it.
+                for (String record : records) {
+                    writer.write('\n');
+                    writer.write(record);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not append to the listening history");
+        }
+    }
+
+    // Runs on the executor
+    private boolean compact(List<String> records) {
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF8);
+            try {
+                for (String record : records) {
+                    writer.write('\n');
+                    writer.write(record);
+                }
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Could not replace " + mFile);
+            }
+            return true;
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not compact the listening history");
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        private long mTime;
+        private boolean mPlayed;
+        private int mResumePoint;
+        private boolean mFavorite;
+    }
+}
@@ -17,9 +17,9 @@
 package be.gesprokengazet.model;
 
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
@@ -30,14 +30,14 @@ import be.gesprokengazet.utils.MediaIDHelper;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
 import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_ROOT;
@@ -46,6 +46,10 @@ import static be.gesprokengazet.utils.MediaIDHelper.createMediaID;
 /**
  * Simple data provider for music tracks. The actual metadata source is delegated to a
  * MusicProviderSource defined by a constructor argument of this class.
+ * <p>
+ * The tracks are kept in an immutable {@link Catalog}. Changes build a new one that replaces it
+ * as a whole, so tracks are read without locking and always from a consistent catalog. Tracks
+ * the source finds are gathered and added once per publish, not one catalog per track.
  */
 public class MusicProvider {
 
@@ -53,11 +57,13 @@ public class MusicProvider {
 
     private MusicProviderSource mSource;
 
-    // Categorized caches for music track data:
-    private ConcurrentMap<String, List<MediaMetadataCompat>> mMusicListByGenre;
-    private final Map<String, MutableMediaMetadata> mMusicListById;
+    // Replaced while synchronized on this, read without locking
+    private volatile Catalog mCatalog = Catalog.EMPTY;
 
+    // Only used when nothing is remembered across restarts
     private final Set<String> mFavoriteTracks;
+    // Null when nothing is remembered across restarts
+    private final ListeningHistory mHistory;
 
     enum State {
         NON_INITIALIZED, INITIALIZING, INITIALIZED
@@ -69,14 +75,55 @@ public class MusicProvider {
         void onMusicCatalogReady(boolean success);
     }
 
+    /**
+     * Informed on the UI thread whenever tracks were added to the catalog, also while it is
+     * still being retrieved.
+     */
+    public interface OnCatalogChangedListener {
+        void onCatalogChanged();
+    }
+
+    // Partial catalogs are published at most this often, the source may find tracks one by one.
+    private static final long PUBLISH_DELAY = 250; // ms
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Access to these is synchronized on this
+    private final List<Callback> mPendingCallbacks = new ArrayList<>();
+    // Found by the source, but not in the catalog yet
+    private final List<MediaMetadataCompat> mNewTracks = new ArrayList<>();
+    private OnCatalogChangedListener mCatalogChangedListener;
+
+    private final AtomicBoolean mPublishScheduled = new AtomicBoolean();
+    private final Runnable mPublishCatalog = new Runnable() {
+        @Override
+        public void run() {
+            mPublishScheduled.set(false);
+            synchronized (MusicProvider.this) {
+                addNewTracks();
+            }
+            OnCatalogChangedListener listener = mCatalogChangedListener;
+            if (listener != null) {
+                listener.onCatalogChanged();
+            }
+        }
+    };
+
     public MusicProvider() {
         this(new RemoteJSONSource());
     }
     public MusicProvider(MusicProviderSource source) {
+        this(source, null);
+    }
+
+    /**
+     * @param history Where favorites and played tracks are remembered, or null to forget them
+     *                with the provider.
+     */
+    public MusicProvider(MusicProviderSource source, ListeningHistory history) {
         mSource = source;
-        mMusicListByGenre = new ConcurrentHashMap<>();
-        mMusicListById = Collections.synchronizedMap(new LinkedHashMap<String, MutableMediaMetadata>()); //preserve order
         mFavoriteTracks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        // The history is still being read, it is only asked once tracks are shown.
+        mHistory = history;
     }
 
     /**
@@ -88,7 +135,7 @@ public class MusicProvider {
         if (mCurrentState != State.INITIALIZED) {
             return Collections.emptyList();
         }
-        return mMusicListByGenre.keySet();
+        return mCatalog.mByGenre.keySet();
     }
 
     /**
@@ -98,10 +145,7 @@ public class MusicProvider {
         if (mCurrentState != State.INITIALIZED) {
             return Collections.emptyList();
         }
-        List<MediaMetadataCompat> shuffled = new ArrayList<>(mMusicListById.size());
-        for (MutableMediaMetadata mutableMetadata: mMusicListById.values()) {
-            shuffled.add(mutableMetadata.metadata);
-        }
+        List<MediaMetadataCompat> shuffled = new ArrayList<>(mCatalog.mTracks);
         Collections.shuffle(shuffled);
         return shuffled;
     }
@@ -111,10 +155,11 @@ public class MusicProvider {
      *
      */
     public List<MediaMetadataCompat> getMusicsByGenre(String genre) {
-        if (mCurrentState != State.INITIALIZED || !mMusicListByGenre.containsKey(genre)) {
+        List<MediaMetadataCompat> tracks = mCatalog.mByGenre.get(genre);
+        if (mCurrentState != State.INITIALIZED || tracks == null) {
             return Collections.emptyList();
         }
-        return mMusicListByGenre.get(genre);
+        return tracks;
     }
 
     /**
@@ -159,10 +204,10 @@ public class MusicProvider {
         }
         ArrayList<MediaMetadataCompat> result = new ArrayList<>();
         query = query.toLowerCase(Locale.US);
-        for (MutableMediaMetadata track : mMusicListById.values()) {
-            if (track.metadata.getString(metadataField).toLowerCase(Locale.US)
+        for (MediaMetadataCompat track : mCatalog.mTracks) {
+            if (track.getString(metadataField).toLowerCase(Locale.US)
                     .contains(query)) {
-                result.add(track.metadata);
+                result.add(track);
             }
         }
         return result;
@@ -175,121 +220,158 @@ public class MusicProvider {
      * @param musicId The unique, non-hierarchical music ID.
      */
     public MediaMetadataCompat getMusic(String musicId) {
-        return mMusicListById.containsKey(musicId) ? mMusicListById.get(musicId).metadata : null;
+        return mCatalog.mById.get(musicId);
     }
 
-    public synchronized void updateMusicArt(String musicId, Bitmap albumArt, Bitmap icon) {
+    /**
+     * Points the artwork of the given music to a content uri. Bitmaps are never put in the
+     * metadata itself: it is sent to every controller on each change, and large transactions
+     * fail. Controllers open the uri and decode the image at the size they need instead.
+     */
+    public synchronized void updateMusicArt(String musicId, Uri artUri) {
         MediaMetadataCompat metadata = getMusic(musicId);
+        if (metadata == null) {
+            throw new IllegalStateException("Unexpected error: Unknown music " + musicId);
+        }
         metadata = new MediaMetadataCompat.Builder(metadata)
 
-                // set high resolution bitmap in METADATA_KEY_ALBUM_ART. This is used, for
-                // example, on the lockscreen background when the media session is active.
-                .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, albumArt)
+                // used, for example, on the lockscreen background when the media session is
+                // active.
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, artUri.toString())
 
-                // set small version of the album art in the DISPLAY_ICON. This is used on
-                // the MediaDescription and thus it should be small to be serialized if
-                // necessary
-                .putBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON, icon)
+                // used on the MediaDescription.
+                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, artUri.toString())
 
                 .build();
 
-        MutableMediaMetadata mutableMetadata = mMusicListById.get(musicId);
-        if (mutableMetadata == null) {
-            throw new IllegalStateException("Unexpected error: Inconsistent data structures in " +
-                    "MusicProvider");
-        }
-
-        mutableMetadata.metadata = metadata;
+        mCatalog = mCatalog.with(Collections.singletonList(metadata));
     }
 
     public void setFavorite(String musicId, boolean favorite) {
-        if (favorite) {
+        if (mHistory != null) {
+            mHistory.setFavorite(musicId, favorite);
+        } else if (favorite) {
             mFavoriteTracks.add(musicId);
         } else {
             mFavoriteTracks.remove(musicId);
         }
     }
 
+    /**
+     * @return whether the given track was played to its end before.
+     */
+    public boolean isPlayed(String musicId) {
+        return mHistory != null && mHistory.isPlayed(musicId);
+    }
+
     public boolean isInitialized() {
         return mCurrentState == State.INITIALIZED;
     }
 
+    /**
+     * @return whether any tracks are known, even if the catalog is still being retrieved.
+     */
+    public boolean hasMusic() {
+        return !mCatalog.mTracks.isEmpty();
+    }
+
+    public void setOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        mCatalogChangedListener = listener;
+    }
+
     public boolean isFavorite(String musicId) {
-        return mFavoriteTracks.contains(musicId);
+        return mHistory != null ? mHistory.isFavorite(musicId) : mFavoriteTracks.contains(musicId);
     }
 
     /**
      * Get the list of music tracks from a server and caches the track information
-     * for future reference, keying tracks by musicId and grouping by genre.
+     * for future reference, keying tracks by musicId and grouping by genre. Tracks are
+     * available as soon as the source found them, see {@link OnCatalogChangedListener}.
+     *
+     * @param callback Called on the UI thread once the whole catalog is retrieved, or failed.
      */
     public void retrieveMediaAsync(final Callback callback) {
         LogHelper.d(TAG, "retrieveMediaAsync called");
-        if (mCurrentState == State.INITIALIZED) {
-            if (callback != null) {
-                // Nothing to do, execute callback immediately
-                callback.onMusicCatalogReady(true);
-            }
-            return;
-        }
-
-        // Asynchronously load the music catalog in a separate thread
-        new AsyncTask<Void, Void, State>() {
-            @Override
-            protected State doInBackground(Void... params) {
-                retrieveMedia();
-                return mCurrentState;
-            }
-
-            @Override
-            protected void onPostExecute(State current) {
+        boolean ready = false;
+        boolean start = false;
+        synchronized (this) {
+            if (mCurrentState == State.INITIALIZED) {
+                ready = true;
+            } else {
                 if (callback != null) {
-                    callback.onMusicCatalogReady(current == State.INITIALIZED);
+                    mPendingCallbacks.add(callback);
+                }
+                if (mCurrentState == State.NON_INITIALIZED) {
+                    mCurrentState = State.INITIALIZING;
+                    start = true;
                 }
             }
-        }.execute();
+        }
+        if (start) {
+            mSource.retrieve(mSourceListener);
+        } else if (ready && callback != null) {
+            // Nothing to do, execute callback immediately
+            callback.onMusicCatalogReady(true);
+        }
     }
 
-    private synchronized void buildListsByGenre() {
-        ConcurrentMap<String, List<MediaMetadataCompat>> newMusicListByGenre = new ConcurrentHashMap<>();
-
-        for (MutableMediaMetadata m : mMusicListById.values()) {
-            String genre = m.metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE);
-            List<MediaMetadataCompat> list = newMusicListByGenre.get(genre);
-            if (list == null) {
-                list = new ArrayList<>();
-                newMusicListByGenre.put(genre, list);
+    private final MusicProviderSource.Listener mSourceListener = new MusicProviderSource.Listener() {
+        @Override
+        public void onItems(List<MediaMetadataCompat> items) {
+            synchronized (MusicProvider.this) {
+                mNewTracks.addAll(items);
+            }
+            if (mPublishScheduled.compareAndSet(false, true)) {
+                mHandler.postDelayed(mPublishCatalog, PUBLISH_DELAY);
             }
-            list.add(m.metadata);
         }
-        mMusicListByGenre = newMusicListByGenre;
-    }
 
-    private synchronized void retrieveMedia() {
-        try {
-            if (mCurrentState == State.NON_INITIALIZED) {
-                mCurrentState = State.INITIALIZING;
+        @Override
+        public void onComplete() {
+            finishRetrieval(State.INITIALIZED);
+        }
 
-                Iterator<MediaMetadataCompat> tracks = mSource.iterator();
-                while (tracks.hasNext()) {
-                    MediaMetadataCompat item = tracks.next();
-                    String musicId = item.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-                    mMusicListById.put(musicId, new MutableMediaMetadata(musicId, item));
-                }
-                buildListsByGenre();
-                mCurrentState = State.INITIALIZED;
-            }
-        } catch (RuntimeException ex) {
-            LogHelper.w(TAG, ex.getMessage());
+        @Override
+        public void onError(String message) {
+            LogHelper.w(TAG, message);
+            // Something bad happened, so we reset state to NON_INITIALIZED to allow
+            // retries (eg if the network connection is temporary unavailable)
+            finishRetrieval(State.NON_INITIALIZED);
         }
-        finally {
-            if (mCurrentState != State.INITIALIZED) {
-                // Something bad happened, so we reset state to NON_INITIALIZED to allow
-                // retries (eg if the network connection is temporary unavailable)
-                mCurrentState = State.NON_INITIALIZED;
-            }
+    };
+
+    private void finishRetrieval(State state) {
+        final List<Callback> callbacks;
+        synchronized (this) {
+            // Whoever sees the new state also sees all tracks.
+            addNewTracks();
+            mCurrentState = state;
+            callbacks = new ArrayList<>(mPendingCallbacks);
+            mPendingCallbacks.clear();
         }
+        final boolean success = state == State.INITIALIZED;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Publish what is left right away, rather than after the delay.
+                mHandler.removeCallbacks(mPublishCatalog);
+                mPublishCatalog.run();
+                for (Callback callback : callbacks) {
+                    callback.onMusicCatalogReady(success);
+                }
+            }
+        });
     }
 
+    /**
+     * Adds the tracks found since the last call to the catalog. Call while synchronized on this.
+     */
+    private void addNewTracks() {
+        if (!mNewTracks.isEmpty()) {
+            mCatalog = mCatalog.with(mNewTracks);
+            mNewTracks.clear();
+        }
+    }
 
     public List<MediaBrowserCompat.MediaItem> getChildren(String mediaId, Resources resources) {
         List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
@@ -303,9 +385,10 @@ public class MusicProvider {
 
             // Do not browse the root (as per above), but immediately return (non-browseable) children
             // that are the news articles themselves.
-            List<MediaBrowserCompat.MediaItem> music = new ArrayList<>(mMusicListById.size());
-            for (MutableMediaMetadata mutableMetadata: mMusicListById.values()) {
-                music.add(createMediaItem(mutableMetadata.metadata));
+            List<MediaMetadataCompat> tracks = mCatalog.mTracks;
+            List<MediaBrowserCompat.MediaItem> music = new ArrayList<>(tracks.size());
+            for (MediaMetadataCompat metadata : tracks) {
+                music.add(createMediaItem(metadata));
             }
             return music;
 
@@ -366,4 +449,83 @@ public class MusicProvider {
 
     }
 
+    /**
+     * The tracks in the order of the source, by id and by genre. It is never changed once built.
+     */
+    private static final class Catalog {
+        static final Catalog EMPTY = new Catalog(new HashMap<String, MediaMetadataCompat>(),
+                new ArrayList<MediaMetadataCompat>(),
+                new LinkedHashMap<String, List<MediaMetadataCompat>>());
+
+        final List<MediaMetadataCompat> mTracks;
+        final Map<String, MediaMetadataCompat> mById;
+        final Map<String, List<MediaMetadataCompat>> mByGenre;
+
+        private Catalog(Map<String, MediaMetadataCompat> byId, List<MediaMetadataCompat> tracks,
+                        Map<String, List<MediaMetadataCompat>> byGenre) {
+            mById = Collections.unmodifiableMap(byId);
+            mTracks = Collections.unmodifiableList(tracks);
+            mByGenre = Collections.unmodifiableMap(byGenre);
+        }
+
+        /**
+         * @return a catalog with the given tracks added. A track that is known already is
+         * replaced, it keeps its place. The genres that are not touched share their tracks with
+         * this catalog.
+         */
+        Catalog with(List<MediaMetadataCompat> tracks) {
+            Map<String, MediaMetadataCompat> byId = new HashMap<>(mById);
+            List<MediaMetadataCompat> all = new ArrayList<>(mTracks);
+            Map<String, List<MediaMetadataCompat>> byGenre = new LinkedHashMap<>(mByGenre);
+            Map<String, List<MediaMetadataCompat>> changed = new HashMap<>();
+            for (MediaMetadataCompat track : tracks) {
+                MediaMetadataCompat old = byId.put(
+                        track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID), track);
+                List<MediaMetadataCompat> genre = changeGenre(byGenre, changed, getGenre(track));
+                if (old == null) {
+                    all.add(track);
+                    genre.add(track);
+                } else if (getGenre(old).equals(getGenre(track))) {
+                    all.set(all.indexOf(old), track);
+                    genre.set(genre.indexOf(old), track);
+                } else {
+                    all.set(all.indexOf(old), track);
+                    List<MediaMetadataCompat> oldGenre =
+                            changeGenre(byGenre, changed, getGenre(old));
+                    oldGenre.remove(old);
+                    if (oldGenre.isEmpty()) {
+                        byGenre.remove(getGenre(old));
+                        changed.remove(getGenre(old));
+                    }
+                    genre.add(track);
+                }
+            }
+            for (Map.Entry<String, List<MediaMetadataCompat>> genre : changed.entrySet()) {
+                byGenre.put(genre.getKey(), Collections.unmodifiableList(genre.getValue()));
+            }
+            return new Catalog(byId, all, byGenre);
+        }
+
+        /**
+         * @return a copy of the tracks of a genre that may be changed, made once per catalog.
+         */
+        private static List<MediaMetadataCompat> changeGenre(
+                Map<String, List<MediaMetadataCompat>> byGenre,
+                Map<String, List<MediaMetadataCompat>> changed, String genre) {
+            List<MediaMetadataCompat> tracks = changed.get(genre);
+            if (tracks == null) {
+                List<MediaMetadataCompat> current = byGenre.get(genre);
+                tracks = current == null ? new ArrayList<MediaMetadataCompat>()
+                        : new ArrayList<>(current);
+                changed.put(genre, tracks);
+                // Keeps the order of the genres
+                byGenre.put(genre, tracks);
+            }
+            return tracks;
+        }
+
+        private static String getGenre(MediaMetadataCompat track) {
+            return track.getString(MediaMetadataCompat.METADATA_KEY_GENRE);
+        }
+    }
 }
@@ -18,11 +18,28 @@ package be.gesprokengazet.model;
 
 import android.support.v4.media.MediaMetadataCompat;
 
-import java.util.Iterator;
+import java.util.List;
 
 public interface MusicProviderSource {
     String CUSTOM_METADATA_TRACK_SOURCE = "__SOURCE__";
     String CUSTOM_METADATA_TRACK_LANGUAGE = "__LANGUAGE__";
     String CUSTOM_METADATA_TRACK_COUNTRY = "__COUNTRY__";
-    Iterator<MediaMetadataCompat> iterator();
+
+    /**
+     * Receives the tracks of a source as they are discovered. It may be called from any thread,
+     * but never concurrently.
+     */
+    interface Listener {
+        void onItems(List<MediaMetadataCompat> items);
+
+        void onComplete();
+
+        void onError(String message);
+    }
+
+    /**
+     * Starts retrieving the tracks, without blocking. The listener gets any number of batches,
+     * followed by either {@link Listener#onComplete()} or {@link Listener#onError(String)}.
+     */
+    void retrieve(Listener listener);
 }
@@ -1,54 +0,0 @@
-/*
- * Copyright (C) 2014 The Android Open Source Project
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package be.gesprokengazet.model;
-
-import android.support.v4.media.MediaMetadataCompat;
-import android.text.TextUtils;
-
-/**
- * Holder class that encapsulates a MediaMetadata and allows the actual metadata to be modified
- * without requiring to rebuild the collections the metadata is in.
- */
-public class MutableMediaMetadata {
-
-    public MediaMetadataCompat metadata;
-    public final String trackId;
-
-    public MutableMediaMetadata(String trackId, MediaMetadataCompat metadata) {
-        this.metadata = metadata;
-        this.trackId = trackId;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (o == null || o.getClass() != MutableMediaMetadata.class) {
-            return false;
-        }
-
-        MutableMediaMetadata that = (MutableMediaMetadata) o;
-
-        return TextUtils.equals(trackId, that.trackId);
-    }
-
-    @Override
-    public int hashCode() {
-        return trackId.hashCode();
-    }
-}
@@ -1,20 +1,24 @@
 package be.gesprokengazet.model;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaMetadataCompat;
 
 import be.gesprokengazet.R;
 import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionStore;
 import be.gesprokengazet.news.NewsSiteConfiguration;
+import be.gesprokengazet.news.Priority;
 import be.gesprokengazet.news.TableOfContents;
 import be.gesprokengazet.news.WebResourceCompleted;
 import be.gesprokengazet.utils.LogHelper;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,16 +28,19 @@ public class NewsSource implements MusicProviderSource {
 
     private static final String TAG = LogHelper.makeLogTag(NewsSource.class);
 
+    // Falls back to the last prefetched edition when the download takes longer than this.
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
     private final Context mContext;
     private final NewsSiteConfiguration mConfig;
-    private final TableOfContents mToc;
     private final DownloadManager<TableOfContents> mDownloadManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     public NewsSource(Context context, NewsSiteConfiguration config) {
         mContext = context;
         mConfig = config;
-        mToc = new TableOfContents(config.getTableOfContentsURL());
-        mDownloadManager = new DownloadManager<>(context, config.getTocScrapingJavascript());
+        mDownloadManager = new DownloadManager<>(context, config.getTocScrapingJavascript(),
+                config.getResourceFilter());
     }
 
     public void destroy() {
@@ -41,46 +48,28 @@ public class NewsSource implements MusicProviderSource {
     }
 
     @Override
-    public Iterator<MediaMetadataCompat> iterator() {
-
-        //Reschedule the download, in case it failed the first time. Has no effect if download succeeded last time.
-        final CountDownLatch tocComplete = new CountDownLatch(1);
-        final String[] error = new String[1];
-        mDownloadManager.scheduleForDownload(mToc, new WebResourceCompleted<TableOfContents>() {
-            @Override
-            public void onSuccess(TableOfContents resource) {
-                tocComplete.countDown();
-            }
-
-            @Override
-            public void onError(TableOfContents resource, String message) {
-                tocComplete.countDown();
-                error[0] = message;
-            }
-        });
-
-        try {
-            boolean success = tocComplete.await(30, TimeUnit.SECONDS);
-            if (!success) {
-                throw new RuntimeException(mContext.getResources().getString(R.string.error_download_failed));
-            }
-            if (error[0] != null ){
-                throw new RuntimeException(error[0]);
-            }
-
-            ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-            ArrayList<String> all = new ArrayList<>(mToc.getTitlesAndURLs().values());
-            for (Map.Entry<String, String> entry : mToc.getTitlesAndURLs().entrySet()) {
-                tracks.add(buildFromURL(entry.getKey(), entry.getValue(), all));
+    public void retrieve(Listener listener) {
+        EditionStore store = EditionStore.getInstance();
+        TableOfContents toc = store.getTableOfContents(mConfig.getTableOfContentsURL());
+        TableOfContentsRetrieval retrieval = new TableOfContentsRetrieval(listener);
+        if (!toc.hasContent()) {
+            // Show the news of a recent prefetch right away, what was published since is added
+            // once the table of contents is downloaded.
+            TableOfContents edition =
+                    store.restoreRecentTableOfContents(mConfig.getTableOfContentsURL());
+            if (edition != null) {
+                retrieval.publish(edition.getTitlesAndURLs());
             }
-            return tracks.iterator();
-        } catch (InterruptedException e) {
-            LogHelper.e(TAG, e, "Could not retrieve music list");
-            throw new RuntimeException("Could not retrieve music list", e);
         }
+
+        // Reschedule the download, in case it failed the first time. Has no effect if download
+        // succeeded last time. Browsers wait for the catalog, so it goes before anything else and
+        // fails right away when the site is known to be down: the last edition is used then.
+        mHandler.postDelayed(retrieval, TIMEOUT);
+        mDownloadManager.scheduleForDownload(toc, Priority.INTERACTIVE, retrieval);
     }
 
-    private MediaMetadataCompat buildFromURL(String title, String url, List<String> allUrls) {
+    private MediaMetadataCompat buildFromURL(String title, String url, int index) {
         return new MediaMetadataCompat.Builder()
                 .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, url)
                 .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, url)
@@ -91,8 +80,81 @@ public class NewsSource implements MusicProviderSource {
                 .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, 60*60*1000) // we don't know the duration, just use a too large value
                 .putString(MediaMetadataCompat.METADATA_KEY_GENRE, mConfig.getName())
                 .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, allUrls.indexOf(url))
-                .putLong(MediaMetadataCompat.METADATA_KEY_NUM_TRACKS, allUrls.size())
+                .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, index)
                 .build();
     }
+
+    /**
+     * Publishes the articles of the table of contents once it is downloaded, or those of the last
+     * edition when that fails. All of it happens on the UI thread.
+     */
+    private class TableOfContentsRetrieval
+            implements WebResourceCompleted<TableOfContents>, Runnable {
+        private final Listener mListener;
+        private final Set<String> mPublishedUrls = new HashSet<>();
+        private boolean mFinished;
+
+        TableOfContentsRetrieval(Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onSuccess(TableOfContents resource) {
+            if (!mFinished) {
+                publish(resource.getTitlesAndURLs());
+                finish(null);
+            }
+        }
+
+        @Override
+        public void onError(TableOfContents resource, String message) {
+            if (!mFinished) {
+                fallBack(message);
+            }
+        }
+
+        // Timeout
+        @Override
+        public void run() {
+            if (!mFinished) {
+                fallBack(mContext.getResources().getString(R.string.error_download_failed));
+            }
+        }
+
+        private void fallBack(String message) {
+            // Fall back to the last prefetched edition, old news beats no news.
+            TableOfContents toc = EditionStore.getInstance().restoreTableOfContents(
+                    mConfig.getTableOfContentsURL());
+            if (toc != null) {
+                publish(toc.getTitlesAndURLs());
+                finish(null);
+            } else {
+                finish(message);
+            }
+        }
+
+        private void publish(Map<String, String> titlesAndUrls) {
+            List<MediaMetadataCompat> tracks = new ArrayList<>();
+            for (Map.Entry<String, String> entry : titlesAndUrls.entrySet()) {
+                String url = entry.getValue();
+                if (mPublishedUrls.add(url)) {
+                    tracks.add(buildFromURL(entry.getKey(), url, mPublishedUrls.size() - 1));
+                }
+            }
+            if (!tracks.isEmpty()) {
+                mListener.onItems(tracks);
+            }
+        }
+
+        private void finish(String error) {
+            mFinished = true;
+            mHandler.removeCallbacks(this);
+            if (error == null) {
+                mListener.onComplete();
+            } else {
+                LogHelper.w(TAG, "Could not retrieve the table of contents: ", error);
+                mListener.onError(error);
+            }
+        }
+    }
 }
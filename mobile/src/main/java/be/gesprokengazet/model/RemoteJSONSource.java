@@ -16,21 +16,22 @@
 
 package be.gesprokengazet.model;
 
+import android.os.AsyncTask;
 import android.support.v4.media.MediaMetadataCompat;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import be.gesprokengazet.utils.HttpHelper;
 import be.gesprokengazet.utils.LogHelper;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Utility class to get a list of MusicTrack's based on a server-side JSON
@@ -54,41 +55,137 @@ public class RemoteJSONSource implements MusicProviderSource {
     private static final String JSON_TOTAL_TRACK_COUNT = "totalTrackCount";
     private static final String JSON_DURATION = "duration";
 
+    // Tracks are handed over in batches, so the first ones are available before the catalog is
+    // parsed completely.
+    private static final int BATCH_SIZE = 20;
+
     @Override
-    public Iterator<MediaMetadataCompat> iterator() {
-        try {
-            int slashPos = CATALOG_URL.lastIndexOf('/');
-            String path = CATALOG_URL.substring(0, slashPos + 1);
-            JSONObject jsonObj = fetchJSONFromUrl(CATALOG_URL);
-            ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-            if (jsonObj != null) {
-                JSONArray jsonTracks = jsonObj.getJSONArray(JSON_MUSIC);
-
-                if (jsonTracks != null) {
-                    for (int j = 0; j < jsonTracks.length(); j++) {
-                        tracks.add(buildFromJSON(jsonTracks.getJSONObject(j), path));
+    public void retrieve(final Listener listener) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Iterator<MediaMetadataCompat> tracks = tracks();
+                    List<MediaMetadataCompat> batch = new ArrayList<>(BATCH_SIZE);
+                    while (tracks.hasNext()) {
+                        batch.add(tracks.next());
+                        if (batch.size() == BATCH_SIZE) {
+                            listener.onItems(batch);
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        listener.onItems(batch);
                     }
+                    listener.onComplete();
+                } catch (RuntimeException e) {
+                    listener.onError(e.getMessage());
                 }
             }
-            return tracks.iterator();
-        } catch (JSONException e) {
+        });
+    }
+
+    private Iterator<MediaMetadataCompat> tracks() {
+        int slashPos = CATALOG_URL.lastIndexOf('/');
+        String path = CATALOG_URL.substring(0, slashPos + 1);
+        try {
+            JsonReader reader = openTracks(CATALOG_URL);
+            if (reader == null) {
+                return Collections.emptyIterator();
+            }
+            return new TrackIterator(reader, path);
+        } catch (IOException | IllegalStateException e) {
+            // JsonReader reports malformed JSON as IllegalStateException.
             LogHelper.e(TAG, e, "Could not retrieve music list");
             throw new RuntimeException("Could not retrieve music list", e);
         }
     }
 
-    private MediaMetadataCompat buildFromJSON(JSONObject json, String basePath) throws JSONException {
-        String title = json.getString(JSON_TITLE);
-        String album = json.getString(JSON_ALBUM);
-        String artist = json.getString(JSON_ARTIST);
-        String genre = json.getString(JSON_GENRE);
-        String source = json.getString(JSON_SOURCE);
-        String iconUrl = json.getString(JSON_IMAGE);
-        int trackNumber = json.getInt(JSON_TRACK_NUMBER);
-        int totalTrackCount = json.getInt(JSON_TOTAL_TRACK_COUNT);
-        int duration = json.getInt(JSON_DURATION) * 1000; // ms
+    /**
+     * Connects to the catalog and positions a streaming reader at the start of its list of
+     * tracks, so they can be parsed one by one without holding the whole catalog in memory.
+     *
+     * @return reader positioned in the music array, or null if the catalog has no tracks.
+     */
+    private JsonReader openTracks(String urlString) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new BufferedInputStream(HttpHelper.openStream(urlString)), "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (JSON_MUSIC.equals(reader.nextName())) {
+                    reader.beginArray();
+                    return reader;
+                }
+                reader.skipValue();
+            }
+        } catch (IOException | IllegalStateException e) {
+            closeQuietly(reader);
+            throw e;
+        }
+        closeQuietly(reader);
+        return null;
+    }
+
+    private MediaMetadataCompat buildFromJSON(JsonReader reader, String basePath)
+            throws IOException {
+        String title = null;
+        String album = null;
+        String artist = null;
+        String genre = null;
+        String source = null;
+        String iconUrl = null;
+        int trackNumber = 0;
+        int totalTrackCount = 0;
+        int duration = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case JSON_TITLE:
+                    title = reader.nextString();
+                    break;
+                case JSON_ALBUM:
+                    album = reader.nextString();
+                    break;
+                case JSON_ARTIST:
+                    artist = reader.nextString();
+                    break;
+                case JSON_GENRE:
+                    genre = reader.nextString();
+                    break;
+                case JSON_SOURCE:
+                    source = reader.nextString();
+                    break;
+                case JSON_IMAGE:
+                    iconUrl = reader.nextString();
+                    break;
+                case JSON_TRACK_NUMBER:
+                    trackNumber = reader.nextInt();
+                    break;
+                case JSON_TOTAL_TRACK_COUNT:
+                    totalTrackCount = reader.nextInt();
+                    break;
+                case JSON_DURATION:
+                    duration = reader.nextInt() * 1000; // ms
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (source == null || iconUrl == null) {
+            String missing = source == null ? JSON_SOURCE : JSON_IMAGE;
+            throw new IOException("Music track without " + missing);
+        }
 
-        LogHelper.d(TAG, "Found music track: ", json);
+        LogHelper.d(TAG, "Found music track: ", title);
 
         // Media is stored relative to JSON file
         if (!source.startsWith("http")) {
@@ -120,37 +217,72 @@ public class RemoteJSONSource implements MusicProviderSource {
                 .build();
     }
 
+    private static void closeQuietly(JsonReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
     /**
-     * Download a JSON file from a server, parse the content and return the JSON
-     * object.
-     *
-     * @return result JSONObject containing the parsed representation.
+     * Parses the next track only when it is asked for. The connection is closed once the last
+     * track is read, or as soon as parsing fails.
      */
-    private JSONObject fetchJSONFromUrl(String urlString) throws JSONException {
-        BufferedReader reader = null;
-        try {
-            URLConnection urlConnection = new URL(urlString).openConnection();
-            reader = new BufferedReader(new InputStreamReader(
-                    urlConnection.getInputStream(), "iso-8859-1"));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
+    private class TrackIterator implements Iterator<MediaMetadataCompat> {
+        private final String mBasePath;
+        private JsonReader mReader;
+
+        TrackIterator(JsonReader reader, String basePath) {
+            mReader = reader;
+            mBasePath = basePath;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mReader == null) {
+                return false;
             }
-            return new JSONObject(sb.toString());
-        } catch (JSONException e) {
-            throw e;
-        } catch (Exception e) {
-            LogHelper.e(TAG, "Failed to parse the json for media list", e);
-            return null;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    // ignore
+            try {
+                if (mReader.hasNext()) {
+                    return true;
                 }
+                mReader.endArray();
+            } catch (IOException | IllegalStateException e) {
+                throw fail(e);
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public MediaMetadataCompat next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return buildFromJSON(mReader, mBasePath);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                throw fail(e);
             }
         }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private RuntimeException fail(Exception e) {
+            close();
+            LogHelper.e(TAG, e, "Could not parse music list");
+            return new RuntimeException("Could not parse music list", e);
+        }
+
+        private void close() {
+            closeQuietly(mReader);
+            mReader = null;
+        }
     }
 }
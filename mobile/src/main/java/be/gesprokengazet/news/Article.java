@@ -1,18 +1,63 @@
 package be.gesprokengazet.news;
 
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An article of the news site. It is composed of a list of strings, where each string
  * represents a paragraph of text, a title ...
  */
 public class Article extends WebResource {
+    private volatile ArticleText mText = ArticleText.EMPTY;
+
     public Article(String url) {
         super(url);
     }
 
-    public List<String> getText() {
-        return new ArrayList<>(getContent().keySet());
+    /**
+     * @return the paragraphs, it isn't copied so it is cheap to call repeatedly.
+     */
+    public ArticleText getText() {
+        return mText;
+    }
+
+    public void setText(ArticleText text) {
+        mText = text;
+    }
+
+    @Override
+    public boolean hasContent() {
+        return !mText.isEmpty();
+    }
+
+    @Override
+    public int getContentLength() {
+        return mText.getLength();
+    }
+
+    /**
+     * Paragraphs that occur more than once are set only once, use {@link #setText} instead.
+     */
+    @Override
+    public void setContent(Map<String, String> content) {
+        setText(ArticleText.of(content.keySet()));
+    }
+
+    /**
+     * @return a copy of the paragraphs, each without a url. Use {@link #getText} instead.
+     */
+    @Override
+    public Map<String, String> getContent() {
+        Map<String, String> content = new LinkedHashMap<>();
+        for (String paragraph : mText) {
+            content.put(paragraph, "");
+        }
+        return content;
+    }
+
+    @Override
+    void setScraped(List<String> texts, List<String> urls) {
+        setText(ArticleText.of(texts));
     }
 }
@@ -0,0 +1,89 @@
+package be.gesprokengazet.news;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * The paragraphs of an article, in reading order. It is immutable and backed by an array, so it is
+ * shared instead of copied. Paragraphs that occur more than once are kept.
+ * <p>
+ * The text is seen as the paragraphs one after the other, without separators: the character
+ * offset where every paragraph starts is computed once.
+ */
+public final class ArticleText extends AbstractList<String> implements RandomAccess {
+    public static final ArticleText EMPTY = new ArticleText(new String[0]);
+
+    private final String[] mParagraphs;
+    private final int[] mOffsets; // One more than the paragraphs, the last is the length
+
+    private ArticleText(String[] paragraphs) {
+        mParagraphs = paragraphs;
+        mOffsets = new int[paragraphs.length + 1];
+        for (int i = 0; i < paragraphs.length; i++) {
+            mOffsets[i + 1] = mOffsets[i] + paragraphs[i].length();
+        }
+    }
+
+    /**
+     * @return the text of the given paragraphs, in the order of the collection.
+     */
+    public static ArticleText of(Collection<String> paragraphs) {
+        if (paragraphs.isEmpty()) {
+            return EMPTY;
+        }
+        String[] array = paragraphs.toArray(new String[paragraphs.size()]);
+        for (String paragraph : array) {
+            if (paragraph == null) {
+                throw new NullPointerException("Null paragraph in " + paragraphs);
+            }
+        }
+        return new ArticleText(array);
+    }
+
+    @Override
+    public String get(int index) {
+        return mParagraphs[index];
+    }
+
+    @Override
+    public int size() {
+        return mParagraphs.length;
+    }
+
+    /**
+     * @return the offset of the first character of the given paragraph.
+     */
+    public int getOffset(int index) {
+        if (index < 0 || index >= mParagraphs.length) {
+            throw new IndexOutOfBoundsException("Paragraph " + index + " of " + size());
+        }
+        return mOffsets[index];
+    }
+
+    /**
+     * @return the number of characters of all paragraphs together.
+     */
+    public int getLength() {
+        return mOffsets[mParagraphs.length];
+    }
+
+    /**
+     * @return the paragraph that holds the character at the given offset.
+     */
+    public int indexAt(int offset) {
+        if (offset < 0 || offset >= getLength()) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " of " + getLength());
+        }
+        // The last paragraph that starts at or before the offset, empty ones are skipped
+        int index = Arrays.binarySearch(mOffsets, 0, mParagraphs.length, offset);
+        if (index < 0) {
+            return -index - 2;
+        }
+        while (mOffsets[index + 1] == offset) {
+            index++;
+        }
+        return index;
+    }
+}
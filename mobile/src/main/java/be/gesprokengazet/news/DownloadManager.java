@@ -1,82 +1,198 @@
 package be.gesprokengazet.news;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.webkit.WebView;
 
+import be.gesprokengazet.R;
+import be.gesprokengazet.utils.BackoffPolicy;
+import be.gesprokengazet.utils.CircuitBreaker;
 import be.gesprokengazet.utils.LogHelper;
+import be.gesprokengazet.utils.MetricsRegistry;
+import be.gesprokengazet.utils.NetworkHelper;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages downloading the resources. It only downloads one resource at a time, but many resources can
  * be scheduled (or removed). It informs a callback when new content becomes available, or when an
  * error occurred.
+ * <p>
+ * The most urgent resources are downloaded first, see {@link Priority}. Scheduling a resource that
+ * is more urgent than the one being downloaded interrupts that download, it is resumed later.
+ * <p>
+ * The downloads are measured in the {@link MetricsRegistry}, per kind of resource:
+ * "download.&lt;kind&gt;.queueDepth", ".wait" and ".service" times, ".success", ".error" and
+ * ".timeout" counts, ".errors.&lt;host&gt;", the ".contentChars" that were scraped and the
+ * requests of the pages that were ".blocked", also per ".blocked.&lt;reason&gt;". Whether pages
+ * were scraped as soon as their document was parsed is counted as ".extractedAt.domReady",
+ * otherwise as ".extractedAt.pageFinished". Downloads that were removed while ongoing are
+ * counted as ".cancelled", those that were interrupted for a more urgent one as ".preempted".
+ * <p>
+ * A download that takes longer than its deadline fails, so a page that never loads doesn't hold
+ * up the resources behind it.
+ * <p>
+ * When a site can't be reached, the download is tried again later, with a growing delay. A site
+ * that keeps failing isn't contacted for a while, see {@link CircuitBreaker}: what the user waits
+ * for fails right away, other resources wait until the site may be back. Waiting resources are
+ * resumed as soon as the device gets connected again. Retries are counted as ".retry", requests
+ * that weren't made because the site is down as ".shortCircuited".
  */
 public class DownloadManager<T extends WebResource> {
     private static final String TAG = LogHelper.makeLogTag(DownloadManager.class);
 
-    // Access to these is synchronized on resourcesToDownload
-    private final Map<T, List<WebResourceCompleted<T>>> mResourcesToDownload = new LinkedHashMap<>();
-    private T mOngoingDownload;
+    private static final long DEFAULT_DEADLINE = TimeUnit.SECONDS.toMillis(30);
+    private static final BackoffPolicy RETRY_BACKOFF = new BackoffPolicy(
+            TimeUnit.SECONDS.toMillis(2), TimeUnit.SECONDS.toMillis(30), 3);
+    // While the trial request of a site that was down is underway, others check back this often
+    private static final long TRIAL_WAIT = TimeUnit.SECONDS.toMillis(1);
+
+    // Access to these is synchronized on mResourcesToDownload
+    private final DownloadQueue<T> mResourcesToDownload = new DownloadQueue<>();
+    private final Map<T, Long> mScheduledAt = new HashMap<>();
+    private DownloadQueue.Entry<T> mOngoingDownload;
+    // Waiting to be retried, or for their site to be back
+    private final Map<T, DownloadQueue.Entry<T>> mWaiting = new HashMap<>();
+    private boolean mDestroyed;
 
     private final Handler mMessageHandler;
     private final WebScraper<T> mScraper;
     private final WebView mWebView;
     private final String mScrapingJavascript;
+    private volatile long mDeadline = DEFAULT_DEADLINE;
+    private final Context mContext;
+    private final BroadcastReceiver mConnectivityReceiver;
 
     /**
      * Creates a new download manager.
      *
      * @param context            Android context.
      * @param scrapingJavascript The relevant scraping Javascript.
+     * @param resourceFilter     The requests of the pages that are blocked while scraping.
      */
     public DownloadManager(Context context,
-                           String scrapingJavascript) {
+                           String scrapingJavascript,
+                           ResourceFilter resourceFilter) {
         this.mMessageHandler = new Handler(Looper.getMainLooper());
         this.mWebView = new WebView(context);
         this.mScrapingJavascript = scrapingJavascript;
-        this.mScraper = new WebScraper<>(mWebView, context.getResources());
+        this.mScraper = new WebScraper<>(mWebView, context.getResources(), resourceFilter);
+        this.mContext = context.getApplicationContext();
+        this.mConnectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // The current state is delivered on registration, that isn't a change
+                if (!isInitialStickyBroadcast() && NetworkHelper.isOnline(context)) {
+                    CircuitBreaker.resetAll();
+                    resumeWaiting();
+                }
+            }
+        };
+        mContext.registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
     }
 
+    /**
+     * Must be called on the UI thread. Nothing is downloaded anymore, and no callbacks are called
+     * anymore.
+     */
     public void destroy() {
-        //todo: shutdown more gracefully, e.g. cancel ongoing tasks
+        mContext.unregisterReceiver(mConnectivityReceiver);
+        synchronized (mResourcesToDownload) {
+            mDestroyed = true;
+            if (mOngoingDownload != null && mScraper.cancel()) {
+                breaker(mOngoingDownload.mResource).onAbandoned();
+            }
+            mOngoingDownload = null;
+            for (DownloadQueue.Entry<T> entry = mResourcesToDownload.poll(); entry != null;
+                 entry = mResourcesToDownload.poll()) {
+                metrics().gauge(metric(entry.mResource, "queueDepth")).add(-1);
+            }
+            mScheduledAt.clear();
+            mWaiting.clear();
+        }
+        // Pending downloads, retries and callbacks
+        mMessageHandler.removeCallbacksAndMessages(null);
         mWebView.destroy();
     }
 
+    /**
+     * @param deadline the time a single download may take, in milliseconds, from when it starts.
+     */
+    public void setDeadline(long deadline) {
+        mDeadline = deadline;
+    }
+
+    /**
+     * Schedules the given resource for download, as something the user is waiting for.
+     *
+     * @see #scheduleForDownload(WebResource, Priority, WebResourceCompleted)
+     */
+    public void scheduleForDownload(T resource, WebResourceCompleted<T> callback) {
+        scheduleForDownload(resource, Priority.INTERACTIVE, callback);
+    }
+
     /**
      * Schedules the given resource for download. The callback given to the constructor is informed
-     * when the download is available.
+     * when the download is available. When the resource was scheduled already, it is promoted to
+     * the given priority if that is higher.
      *
      * @param resource The resource to download.
+     * @param priority How urgently the resource is needed.
      * @param callback The callback that is notified when the download has finished, or failed.
      */
-    public void scheduleForDownload(final T resource, final WebResourceCompleted<T> callback) {
+    public void scheduleForDownload(final T resource, final Priority priority,
+                                    final WebResourceCompleted<T> callback) {
         mMessageHandler.post(new Runnable() {
             @Override
             public void run() {
                 Util.assertUIThread();
 
                 // Content has been downloaded already
-                if (!resource.getContent().isEmpty()) {
+                if (resource.hasContent()) {
                     callback.onSuccess(resource);
                 } else {
                     // No resource content is available, so go download it.
                     synchronized (mResourcesToDownload) {
-                        List<WebResourceCompleted<T>> callbacks = mResourcesToDownload.get(resource);
-                        if (callbacks == null) {
-                            callbacks = new ArrayList<>();
-                            mResourcesToDownload.put(resource, callbacks);
+                        if (mDestroyed) {
+                            return;
+                        }
+                        if (mOngoingDownload != null && mOngoingDownload.mResource == resource) {
+                            mOngoingDownload.mCallbacks.add(callback);
+                            mOngoingDownload.raise(priority);
+                            return;
+                        }
+                        DownloadQueue.Entry<T> waiting = mWaiting.get(resource);
+                        if (waiting != null) {
+                            waiting.mCallbacks.add(callback);
+                            waiting.raise(priority);
+                            if (priority != Priority.INTERACTIVE) {
+                                return; // It is resumed when its site may be reached again
+                            }
+                            // The user doesn't wait for that, it is tried or fails right away
+                            mWaiting.remove(resource);
+                            requeue(waiting);
+                        } else if (mResourcesToDownload.add(resource, priority, callback)) {
+                            mScheduledAt.put(resource, SystemClock.elapsedRealtime());
+                            metrics().gauge(metric(resource, "queueDepth")).add(1);
                         }
-                        callbacks.add(callback);
 
                         // Kick off the downloading loop.
                         if (mOngoingDownload == null) {
                             startDownloading();
+                        } else if (priority.isHigherThan(mOngoingDownload.getPriority())) {
+                            preempt();
                         }
                     }
                 }
@@ -84,37 +200,105 @@ public class DownloadManager<T extends WebResource> {
         });
     }
 
-    public void removeForDownload(T resource) {
+    /**
+     * Removes the given resource from the download list. When it is being downloaded, that is
+     * stopped. Its callbacks aren't called anymore, unless the download already finished.
+     */
+    public void removeForDownload(final T resource) {
         synchronized (mResourcesToDownload) {
-            mResourcesToDownload.remove(resource);
+            if (mResourcesToDownload.remove(resource) != null) {
+                mScheduledAt.remove(resource);
+                metrics().gauge(metric(resource, "queueDepth")).add(-1);
+            }
+            mWaiting.remove(resource);
+            if (mOngoingDownload == null || mOngoingDownload.mResource != resource) {
+                return;
+            }
         }
+        mMessageHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mResourcesToDownload) {
+                    if (mOngoingDownload == null || mOngoingDownload.mResource != resource) {
+                        return;
+                    }
+                    // Nothing to do when it finished in the meantime
+                    if (mScraper.cancel()) {
+                        metrics().counter(metric(resource, "cancelled")).increment();
+                        breaker(resource).onAbandoned();
+                        mOngoingDownload = null;
+                        downloadNext();
+                    }
+                }
+            }
+        });
     }
 
     /**
-     * Downloads resource content, it takes the first element from the set of resources to download.
-     * It is resilient against changes made to the list between scheduling and executing this method.
-     * It repeatedly calls itself until the list of things to download is empty.
+     * Interrupts the ongoing download for a more urgent one, it is queued again.
+     */
+    private void preempt() {
+        synchronized (mResourcesToDownload) {
+            // Nothing to do when it finished in the meantime
+            if (mScraper.cancel()) {
+                T resource = mOngoingDownload.mResource;
+                metrics().counter(metric(resource, "preempted")).increment();
+                breaker(resource).onAbandoned();
+                requeue(mOngoingDownload);
+                mOngoingDownload = null;
+                startDownloading();
+            }
+        }
+    }
+
+    /**
+     * Downloads resource content, it takes the most urgent element from the set of resources to
+     * download. It is resilient against changes made to the list between scheduling and executing
+     * this method. It repeatedly calls itself until the list of things to download is empty.
      */
     private void startDownloading() {
         Util.assertUIThread();
 
         // Grab the first resource from the work list
+        DownloadQueue.Entry<T> next;
         final T resource;
         final List<WebResourceCompleted<T>> callbacks;
         synchronized (mResourcesToDownload) {
-            if (mResourcesToDownload.isEmpty()) {
-                return;
+            if (mDestroyed || mOngoingDownload != null) {
+                return; // Destroyed, or started already
+            }
+            while (true) {
+                next = mResourcesToDownload.poll();
+                if (next == null) {
+                    return;
+                }
+                metrics().gauge(metric(next.mResource, "queueDepth")).add(-1);
+                if (breaker(next.mResource).allowRequest(SystemClock.elapsedRealtime())) {
+                    break;
+                }
+                shortCircuit(next);
+            }
+            final DownloadQueue.Entry<T> entry = next;
+            resource = entry.mResource;
+            callbacks = entry.mCallbacks;
+            mOngoingDownload = entry;
+            Long scheduledAt = mScheduledAt.remove(resource);
+            if (scheduledAt != null) {
+                metrics().timer(metric(resource, "wait"))
+                        .record(SystemClock.elapsedRealtime() - scheduledAt);
             }
-            Map.Entry<T, List<WebResourceCompleted<T>>> first = mResourcesToDownload.entrySet().iterator().next();
-            resource = first.getKey();
-            callbacks = first.getValue();
-            mOngoingDownload = resource;
         }
+        final long startedAt = SystemClock.elapsedRealtime();
 
         mScraper.scrape(resource, mScrapingJavascript, new WebResourceCompleted<T>() {
             @Override
             public void onSuccess(final T resource) {
-                postDownload(resource);
+                metrics().counter(metric(resource, "contentChars"))
+                        .add(resource.getContentLength());
+                metrics().counter(metric(resource, "success")).increment();
+                recordServiceTime(resource, startedAt);
+                breaker(resource).onSuccess();
+                postDownload(entry);
                 mMessageHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -127,7 +311,25 @@ public class DownloadManager<T extends WebResource> {
 
             @Override
             public void onError(final T resource, final String message) {
-                postDownload(resource);
+                metrics().counter(metric(resource, "error")).increment();
+                metrics().counter(metric(resource, "errors." + Uri.parse(resource.getUrl()).getHost()))
+                        .increment();
+                if (mScraper.timedOut()) {
+                    metrics().counter(metric(resource, "timeout")).increment();
+                }
+                recordServiceTime(resource, startedAt);
+                if (!mScraper.unreachable()) {
+                    // The site answered, the page itself is wrong
+                    breaker(resource).onSuccess();
+                } else {
+                    breaker(resource).onFailure(SystemClock.elapsedRealtime());
+                    if (retry(entry)) {
+                        LogHelper.i(TAG, "Retrying ", resource, " later: ", message);
+                        postDownload(entry);
+                        return;
+                    }
+                }
+                postDownload(entry);
 
                 LogHelper.w(TAG, message);
                 mMessageHandler.post(new Runnable() {
@@ -139,13 +341,121 @@ public class DownloadManager<T extends WebResource> {
                     }
                 });
             }
+        }, mDeadline);
+    }
+
+    private static void recordServiceTime(WebResource resource, long startedAt) {
+        metrics().timer(metric(resource, "service"))
+                .record(SystemClock.elapsedRealtime() - startedAt);
+    }
+
+    private static MetricsRegistry metrics() {
+        return MetricsRegistry.getInstance();
+    }
+
+    static String metric(WebResource resource, String name) {
+        return "download." + resource.getClass().getSimpleName().toLowerCase(Locale.US) + "." +
+                name;
+    }
+
+    private static CircuitBreaker breaker(WebResource resource) {
+        String host = Uri.parse(resource.getUrl()).getHost();
+        return CircuitBreaker.forHost(host == null ? "" : host);
+    }
+
+    /**
+     * Schedules a download that failed because its site couldn't be reached to be tried again,
+     * if it may.
+     *
+     * @return whether it is tried again.
+     */
+    private boolean retry(DownloadQueue.Entry<T> entry) {
+        synchronized (mResourcesToDownload) {
+            if (mOngoingDownload != entry || !RETRY_BACKOFF.canRetry(++entry.mFailedAttempts)) {
+                return false;
+            }
+            metrics().counter(metric(entry.mResource, "retry")).increment();
+            waitFor(entry, RETRY_BACKOFF.getDelay(entry.mFailedAttempts));
+            return true;
+        }
+    }
+
+    /**
+     * Handles a resource whose site is down: what the user waits for fails right away, other
+     * resources wait until the site may be back. Called with the lock held.
+     */
+    private void shortCircuit(DownloadQueue.Entry<T> entry) {
+        final T resource = entry.mResource;
+        metrics().counter(metric(resource, "shortCircuited")).increment();
+        if (entry.getPriority() != Priority.INTERACTIVE) {
+            long now = SystemClock.elapsedRealtime();
+            waitFor(entry, Math.max(breaker(resource).getOpenUntil() - now, TRIAL_WAIT));
+            return;
+        }
+        mScheduledAt.remove(resource);
+        final List<WebResourceCompleted<T>> callbacks = entry.mCallbacks;
+        final String message = mContext.getString(R.string.error_site_unavailable);
+        LogHelper.w(TAG, "Not downloading ", resource, ": ", message);
+        mMessageHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (WebResourceCompleted<T> callback : callbacks) {
+                    callback.onError(resource, message);
+                }
+            }
         });
     }
 
-    private void postDownload(T resource) {
+    /**
+     * Puts a resource aside, it is queued again after the given delay. Called with the lock held.
+     */
+    private void waitFor(final DownloadQueue.Entry<T> entry, long delay) {
+        mWaiting.put(entry.mResource, entry);
+        mMessageHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mResourcesToDownload) {
+                    // It may have been removed or resumed in the meantime
+                    if (mWaiting.get(entry.mResource) != entry) {
+                        return;
+                    }
+                    mWaiting.remove(entry.mResource);
+                    requeue(entry);
+                }
+                startDownloading();
+            }
+        }, delay);
+    }
+
+    /**
+     * Queues all waiting resources again, e.g. when the device got connected.
+     */
+    private void resumeWaiting() {
         synchronized (mResourcesToDownload) {
-            mResourcesToDownload.remove(resource);
+            for (DownloadQueue.Entry<T> entry : mWaiting.values()) {
+                requeue(entry);
+            }
+            mWaiting.clear();
+            downloadNext();
+        }
+    }
+
+    private void requeue(DownloadQueue.Entry<T> entry) {
+        mResourcesToDownload.requeue(entry);
+        metrics().gauge(metric(entry.mResource, "queueDepth")).add(1);
+    }
+
+    private void postDownload(DownloadQueue.Entry<T> entry) {
+        synchronized (mResourcesToDownload) {
+            if (mOngoingDownload == entry) {
+                mOngoingDownload = null;
+            }
+            downloadNext();
+        }
+    }
 
+    private void downloadNext() {
+        synchronized (mResourcesToDownload) {
             // Go download the other resources if needed.
             if (!mResourcesToDownload.isEmpty()) {
                 mMessageHandler.post(new Runnable() {
@@ -154,8 +464,6 @@ public class DownloadManager<T extends WebResource> {
                         startDownloading();
                     }
                 });
-            } else {
-                mOngoingDownload = null;
             }
         }
     }
@@ -0,0 +1,121 @@
+package be.gesprokengazet.news;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The resources that wait to be downloaded, by {@link Priority}. Resources of the same priority
+ * are downloaded in the order they were scheduled. Scheduling a resource that is queued already
+ * adds its callback, and promotes it when the new priority is higher.
+ * <p>
+ * It isn't thread-safe.
+ */
+class DownloadQueue<T extends WebResource> {
+    private final Map<T, Entry<T>> mEntries = new HashMap<>();
+    private final TreeSet<Entry<T>> mOrder = new TreeSet<>(new Comparator<Entry<T>>() {
+        @Override
+        public int compare(Entry<T> a, Entry<T> b) {
+            if (a.mPriority != b.mPriority) {
+                return a.mPriority.compareTo(b.mPriority);
+            }
+            return a.mSequence < b.mSequence ? -1 : a.mSequence > b.mSequence ? 1 : 0;
+        }
+    });
+    private long mNextSequence;
+
+    /**
+     * @return whether the resource wasn't queued yet.
+     */
+    boolean add(T resource, Priority priority, WebResourceCompleted<T> callback) {
+        Entry<T> entry = mEntries.get(resource);
+        boolean added = entry == null;
+        if (added) {
+            entry = new Entry<>(resource, priority, mNextSequence++);
+            mEntries.put(resource, entry);
+            mOrder.add(entry);
+        } else if (priority.isHigherThan(entry.mPriority)) {
+            // Its position must be found again
+            mOrder.remove(entry);
+            entry.mPriority = priority;
+            mOrder.add(entry);
+        }
+        entry.mCallbacks.add(callback);
+        return added;
+    }
+
+    /**
+     * Puts back an entry that was taken from the queue, ahead of the resources of its priority
+     * that were scheduled after it.
+     */
+    void requeue(Entry<T> entry) {
+        Entry<T> queued = mEntries.get(entry.mResource);
+        if (queued != null) {
+            // Scheduled again after it was taken
+            mOrder.remove(queued);
+            entry.mCallbacks.addAll(queued.mCallbacks);
+            entry.raise(queued.mPriority);
+        }
+        mEntries.put(entry.mResource, entry);
+        mOrder.add(entry);
+    }
+
+    /**
+     * @return the most urgent entry, removed from the queue, or null if it is empty.
+     */
+    Entry<T> poll() {
+        Entry<T> entry = mOrder.pollFirst();
+        if (entry != null) {
+            mEntries.remove(entry.mResource);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the entry of the given resource, or null if it wasn't queued.
+     */
+    Entry<T> remove(T resource) {
+        Entry<T> entry = mEntries.remove(resource);
+        if (entry != null) {
+            mOrder.remove(entry);
+        }
+        return entry;
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * A resource with everyone who is waiting for it.
+     */
+    static final class Entry<T extends WebResource> {
+        final T mResource;
+        final List<WebResourceCompleted<T>> mCallbacks = new ArrayList<>();
+        int mFailedAttempts;
+        private final long mSequence;
+        private Priority mPriority;
+
+        private Entry(T resource, Priority priority, long sequence) {
+            mResource = resource;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        Priority getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Raises the priority of an entry that isn't queued, e.g. the one being downloaded.
+         */
+        void raise(Priority priority) {
+            if (priority.isHigherThan(mPriority)) {
+                mPriority = priority;
+            }
+        }
+    }
+}
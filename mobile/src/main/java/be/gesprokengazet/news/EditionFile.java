@@ -0,0 +1,270 @@
+package be.gesprokengazet.news;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A complete news edition in a single, self-contained file: the table of contents, the text of
+ * all articles and their thumbnails. It is written once after a prefetch, and read through a
+ * memory mapped buffer so opening an edition doesn't copy it onto the heap. Any article can be
+ * read without touching the others.
+ * <p>
+ * Layout, all integers are big endian:
+ * <pre>
+ * header     magic, version, creation time, article count, table of contents url
+ * index      per article: url, title, paragraph table, paragraph count, thumbnail
+ * paragraphs per article: an (offset, length) pair for each of its paragraphs
+ * blobs      UTF-8 encoded strings and thumbnail bytes, referred to by the above
+ * </pre>
+ */
+public final class EditionFile implements Closeable {
+    private static final int MAGIC = 0x47474544; // "GGED"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_CREATED_AT = 8;
+    private static final int HEADER_ARTICLE_COUNT = 16;
+    private static final int HEADER_TOC_URL = 20;
+
+    private static final int ENTRY_SIZE = 32;
+    private static final int ENTRY_URL = 0;
+    private static final int ENTRY_TITLE = 8;
+    private static final int ENTRY_PARAGRAPHS = 16;
+    private static final int ENTRY_PARAGRAPH_COUNT = 20;
+    private static final int ENTRY_THUMBNAIL = 24;
+
+    private static final int REFERENCE_SIZE = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mArticleCount;
+    private final Map<String, Integer> mIndexByUrl;
+
+    private EditionFile(RandomAccessFile file) throws IOException {
+        mFile = file;
+        mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        if (mBuffer.limit() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an edition file");
+        }
+        if (mBuffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported edition file version " + mBuffer.getInt(4));
+        }
+        mArticleCount = mBuffer.getInt(HEADER_ARTICLE_COUNT);
+
+        Map<String, Integer> indexByUrl = new HashMap<>(mArticleCount * 2);
+        for (int i = 0; i < mArticleCount; i++) {
+            indexByUrl.put(getUrl(i), i);
+        }
+        mIndexByUrl = Collections.unmodifiableMap(indexByUrl);
+    }
+
+    /**
+     * Opens an edition file for reading.
+     *
+     * @throws IOException when the file doesn't exist or isn't a valid edition.
+     */
+    public static EditionFile open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new EditionFile(randomAccessFile);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself stays valid until it is garbage collected.
+        mFile.close();
+    }
+
+    /**
+     * @return the time the edition was written, in milliseconds since the epoch.
+     */
+    public long getCreatedAt() {
+        return mBuffer.getLong(HEADER_CREATED_AT);
+    }
+
+    public String getTableOfContentsUrl() {
+        return getString(HEADER_TOC_URL);
+    }
+
+    public int getArticleCount() {
+        return mArticleCount;
+    }
+
+    /**
+     * @return the index of the article with the given url, or -1 if it isn't part of the edition.
+     */
+    public int indexOf(String url) {
+        Integer index = mIndexByUrl.get(url);
+        return index == null ? -1 : index;
+    }
+
+    public String getUrl(int article) {
+        return getString(entry(article) + ENTRY_URL);
+    }
+
+    public String getTitle(int article) {
+        return getString(entry(article) + ENTRY_TITLE);
+    }
+
+    public int getParagraphCount(int article) {
+        return mBuffer.getInt(entry(article) + ENTRY_PARAGRAPH_COUNT);
+    }
+
+    public String getParagraph(int article, int paragraph) {
+        int entry = entry(article);
+        if (paragraph < 0 || paragraph >= mBuffer.getInt(entry + ENTRY_PARAGRAPH_COUNT)) {
+            throw new IndexOutOfBoundsException("Paragraph " + paragraph + " of article " + article);
+        }
+        return getString(mBuffer.getInt(entry + ENTRY_PARAGRAPHS) + paragraph * REFERENCE_SIZE);
+    }
+
+    public List<String> getParagraphs(int article) {
+        int count = getParagraphCount(article);
+        List<String> paragraphs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            paragraphs.add(getParagraph(article, i));
+        }
+        return paragraphs;
+    }
+
+    /**
+     * @return a read-only view on the thumbnail of the article, or null if it doesn't have one.
+     */
+    public ByteBuffer getThumbnail(int article) {
+        ByteBuffer thumbnail = getBlob(entry(article) + ENTRY_THUMBNAIL);
+        return thumbnail.remaining() == 0 ? null : thumbnail;
+    }
+
+    private int entry(int article) {
+        if (article < 0 || article >= mArticleCount) {
+            throw new IndexOutOfBoundsException("Article " + article + " of " + mArticleCount);
+        }
+        return HEADER_SIZE + article * ENTRY_SIZE;
+    }
+
+    private String getString(int reference) {
+        return UTF8.decode(getBlob(reference)).toString();
+    }
+
+    private ByteBuffer getBlob(int reference) {
+        int offset = mBuffer.getInt(reference);
+        int length = mBuffer.getInt(reference + 4);
+        // Work on a duplicate, so concurrent readers don't disturb each other's position.
+        ByteBuffer blob = mBuffer.duplicate();
+        blob.limit(offset + length);
+        blob.position(offset);
+        return blob.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * An article to be written into an edition.
+     */
+    public static final class Entry {
+        final String mUrl;
+        final String mTitle;
+        final List<String> mParagraphs;
+        final byte[] mThumbnail;
+
+        /**
+         * @param thumbnail Encoded image, or null if there is none.
+         */
+        public Entry(String url, String title, List<String> paragraphs, byte[] thumbnail) {
+            mUrl = url;
+            mTitle = title;
+            mParagraphs = paragraphs;
+            mThumbnail = thumbnail == null ? new byte[0] : thumbnail;
+        }
+    }
+
+    /**
+     * Writes an edition. The file is replaced atomically, so readers of a previous edition in the
+     * same location aren't affected.
+     */
+    public static void write(File file, String tableOfContentsUrl, long createdAt, List<Entry> entries)
+            throws IOException {
+        List<byte[]> blobs = new ArrayList<>();
+        int paragraphCount = 0;
+        for (Entry entry : entries) {
+            paragraphCount += entry.mParagraphs.size();
+        }
+        int paragraphsStart = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+        int blobsStart = paragraphsStart + paragraphCount * REFERENCE_SIZE;
+
+        ByteBuffer index = ByteBuffer.allocate(blobsStart);
+        BlobWriter blobWriter = new BlobWriter(blobs, blobsStart);
+
+        index.putInt(MAGIC).putInt(VERSION).putLong(createdAt).putInt(entries.size());
+        blobWriter.putString(index, tableOfContentsUrl);
+        index.position(HEADER_SIZE);
+
+        int paragraphTable = paragraphsStart;
+        for (Entry entry : entries) {
+            blobWriter.putString(index, entry.mUrl);
+            blobWriter.putString(index, entry.mTitle);
+            index.putInt(paragraphTable).putInt(entry.mParagraphs.size());
+            blobWriter.putBlob(index, entry.mThumbnail);
+            paragraphTable += entry.mParagraphs.size() * REFERENCE_SIZE;
+        }
+        for (Entry entry : entries) {
+            for (String paragraph : entry.mParagraphs) {
+                blobWriter.putString(index, paragraph);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(index.array());
+            for (byte[] blob : blobs) {
+                out.write(blob);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // Appends blobs and writes (offset, length) references to them.
+    private static final class BlobWriter {
+        private final List<byte[]> mBlobs;
+        private int mOffset;
+
+        BlobWriter(List<byte[]> blobs, int offset) {
+            mBlobs = blobs;
+            mOffset = offset;
+        }
+
+        void putString(ByteBuffer index, String value) {
+            putBlob(index, value.getBytes(UTF8));
+        }
+
+        void putBlob(ByteBuffer index, byte[] blob) {
+            index.putInt(mOffset).putInt(blob.length);
+            mBlobs.add(blob);
+            mOffset += blob.length;
+        }
+    }
+}
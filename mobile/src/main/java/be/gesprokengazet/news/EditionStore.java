@@ -0,0 +1,157 @@
+package be.gesprokengazet.news;
+
+import android.content.Context;
+
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide store of the scraped news content: the most recent table of contents and the
+ * articles it refers to. Both the on-demand playback and the background prefetch work on the
+ * same instances, so content that was prefetched never has to be downloaded again.
+ * <p>
+ * Content is restored on demand from the edition that was written by the last prefetch, see
+ * {@link EditionFile}.
+ */
+public final class EditionStore {
+    private static final String TAG = LogHelper.makeLogTag(EditionStore.class);
+
+    private static final String EDITION_FILE_NAME = "edition.bin";
+
+    // An edition older than this is only shown when the news site can't be reached, a more recent
+    // one is shown while the news site is downloaded.
+    private static final long MAX_EDITION_AGE = TimeUnit.HOURS.toMillis(12);
+
+    private static final EditionStore sInstance = new EditionStore();
+
+    // Access to these is synchronized on this
+    private final Map<String, TableOfContents> mTables = new HashMap<>();
+    private final Map<String, Article> mArticles = new HashMap<>();
+    private EditionFile mEdition;
+
+    public static EditionStore getInstance() {
+        return sInstance;
+    }
+
+    private EditionStore() {
+    }
+
+    /**
+     * @return the location of the edition written by the prefetch.
+     */
+    public static File getEditionFile(Context context) {
+        return new File(context.getFilesDir(), EDITION_FILE_NAME);
+    }
+
+    /**
+     * Makes the content of the given edition file available, replacing the previously opened
+     * edition. Nothing happens if the file doesn't exist.
+     */
+    public synchronized void openEdition(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            EditionFile edition = EditionFile.open(file);
+            if (mEdition != null) {
+                mEdition.close();
+            }
+            mEdition = edition;
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not open edition ", file);
+        }
+    }
+
+    /**
+     * @return the table of contents for the given url, an empty one is created if it isn't known
+     * yet. It only gets content by downloading it, see {@link #restoreTableOfContents(String)}
+     * for the one of the edition.
+     */
+    public synchronized TableOfContents getTableOfContents(String url) {
+        TableOfContents toc = mTables.get(url);
+        if (toc == null) {
+            toc = new TableOfContents(url);
+            mTables.put(url, toc);
+        }
+        return toc;
+    }
+
+    /**
+     * @return the table of contents of the last edition if it is recent, or null if there is no
+     * recent edition for the given url.
+     */
+    public synchronized TableOfContents restoreRecentTableOfContents(String url) {
+        if (mEdition == null ||
+                System.currentTimeMillis() - mEdition.getCreatedAt() >= MAX_EDITION_AGE) {
+            return null;
+        }
+        return restoreTableOfContents(url);
+    }
+
+    /**
+     * @return the table of contents of the last edition, regardless of its age, or null if there
+     * is no edition for the given url.
+     */
+    public synchronized TableOfContents restoreTableOfContents(String url) {
+        TableOfContents toc = new TableOfContents(url);
+        return restore(toc) ? toc : null;
+    }
+
+    /**
+     * Replaces the table of contents by a freshly downloaded one. Articles that are no longer
+     * referred to are dropped from the store.
+     */
+    public synchronized void putTableOfContents(TableOfContents toc) {
+        mTables.put(toc.getUrl(), toc);
+
+        Map<String, Article> retained = new HashMap<>();
+        for (TableOfContents table : mTables.values()) {
+            for (String url : table.getTitlesAndURLs().values()) {
+                Article article = mArticles.get(url);
+                if (article != null) {
+                    retained.put(url, article);
+                }
+            }
+        }
+        mArticles.clear();
+        mArticles.putAll(retained);
+    }
+
+    /**
+     * @return the article for the given url, an empty one is created if it isn't known yet. When
+     * the edition has the content of the article, it is restored from it.
+     */
+    public synchronized Article getArticle(String url) {
+        Article article = mArticles.get(url);
+        if (article == null) {
+            article = new Article(url);
+            mArticles.put(url, article);
+        }
+        if (!article.hasContent() && mEdition != null) {
+            int index = mEdition.indexOf(url);
+            // The edition also lists the articles it has no content for
+            if (index >= 0 && mEdition.getParagraphCount(index) > 0) {
+                article.setText(ArticleText.of(mEdition.getParagraphs(index)));
+            }
+        }
+        return article;
+    }
+
+    private boolean restore(TableOfContents toc) {
+        if (mEdition == null || !toc.getUrl().equals(mEdition.getTableOfContentsUrl())) {
+            return false;
+        }
+        Map<String, String> content = new LinkedHashMap<>();
+        for (int i = 0; i < mEdition.getArticleCount(); i++) {
+            content.put(mEdition.getTitle(i), mEdition.getUrl(i));
+        }
+        toc.setContent(content);
+        return true;
+    }
+}
@@ -32,4 +32,12 @@ public abstract class NewsSiteConfiguration {
      * article pages themselves.
      */
     public abstract String getArticleScrapingJavascript();
+
+    /**
+     * @return which requests of the pages can be blocked while scraping them. By default all
+     * that only serves the looks of a page.
+     */
+    public ResourceFilter getResourceFilter() {
+        return ResourceFilter.withoutRules();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package be.gesprokengazet.news;
+
+/**
+ * How urgently a resource is needed, from most to least urgent. A {@link DownloadManager}
+ * downloads the most urgent resources first, and interrupts a download for a more urgent one.
+ */
+public enum Priority {
+    /**
+     * What the user is waiting for, e.g. the article that was just picked.
+     */
+    INTERACTIVE,
+    /**
+     * What is needed next, e.g. the article after the one that is being read.
+     */
+    NEXT,
+    /**
+     * What may be needed later, e.g. articles downloaded in the background.
+     */
+    PREFETCH,
+    /**
+     * Refreshing what is known already, e.g. the table of contents.
+     */
+    REFRESH;
+
+    public boolean isHigherThan(Priority other) {
+        return ordinal() < other.ordinal();
+    }
+}
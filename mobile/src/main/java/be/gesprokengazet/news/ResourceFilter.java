@@ -0,0 +1,130 @@
+package be.gesprokengazet.news;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which requests of a page are needed for scraping it. Scraping only needs the document
+ * and the scripts that build it: stylesheets, fonts, images, media and frames are blocked, so the
+ * page finishes loading sooner.
+ * <p>
+ * A site can refine this with rules, regular expressions that are searched for in the url. A url
+ * that matches a deny rule is always blocked, e.g. for ad and analytics scripts. Otherwise a url
+ * that matches an allow rule is never blocked, e.g. for a frame that holds content.
+ */
+public class ResourceFilter {
+    public static final String DENIED = "denied";
+    public static final String STYLESHEET = "stylesheet";
+    public static final String FONT = "font";
+    public static final String IMAGE = "image";
+    public static final String MEDIA = "media";
+    public static final String FRAME = "frame";
+
+    private static final Pattern STYLESHEET_PATH = Pattern.compile("\\.css$");
+    private static final Pattern FONT_PATH = Pattern.compile("\\.(woff2?|ttf|otf|eot)$");
+    private static final Pattern IMAGE_PATH =
+            Pattern.compile("\\.(png|jpe?g|gif|webp|svg|ico|bmp)$");
+    private static final Pattern MEDIA_PATH =
+            Pattern.compile("\\.(mp3|mp4|m4a|aac|ogg|webm|m3u8|ts|mpd)$");
+
+    private final List<Pattern> mAllowed;
+    private final List<Pattern> mDenied;
+
+    /**
+     * @param allowed regular expressions of urls that are never blocked, unless denied.
+     * @param denied  regular expressions of urls that are always blocked.
+     */
+    public ResourceFilter(List<String> allowed, List<String> denied) {
+        mAllowed = compile(allowed);
+        mDenied = compile(denied);
+    }
+
+    /**
+     * @return a filter without rules of its own.
+     */
+    public static ResourceFilter withoutRules() {
+        return new ResourceFilter(Collections.<String>emptyList(),
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * Checks a request of the page.
+     *
+     * @param url       the requested url.
+     * @param mainFrame whether it is the page itself.
+     * @param headers   the headers of the request, may be null.
+     * @return why the request is blocked, one of the constants of this class, or null when it
+     * may load.
+     */
+    public String check(String url, boolean mainFrame, Map<String, String> headers) {
+        if (mainFrame) {
+            return null;
+        }
+        for (Pattern denied : mDenied) {
+            if (denied.matcher(url).find()) {
+                return DENIED;
+            }
+        }
+        for (Pattern allowed : mAllowed) {
+            if (allowed.matcher(url).find()) {
+                return null;
+            }
+        }
+
+        String path = getPath(url);
+        String accept = getAccept(headers);
+        if (accept.startsWith("text/css") || STYLESHEET_PATH.matcher(path).find()) {
+            return STYLESHEET;
+        } else if (accept.startsWith("font/") || FONT_PATH.matcher(path).find()) {
+            return FONT;
+        } else if (accept.startsWith("image/") || IMAGE_PATH.matcher(path).find()) {
+            return IMAGE;
+        } else if (accept.startsWith("audio/") || accept.startsWith("video/") ||
+                MEDIA_PATH.matcher(path).find()) {
+            return MEDIA;
+        } else if (accept.startsWith("text/html")) {
+            // A document that isn't the page itself is loaded into a frame
+            return FRAME;
+        }
+        return null;
+    }
+
+    private static List<Pattern> compile(List<String> expressions) {
+        List<Pattern> patterns = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            patterns.add(Pattern.compile(expression));
+        }
+        return patterns;
+    }
+
+    /**
+     * @return the path of the url in lower case, without the query and fragment.
+     */
+    private static String getPath(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(0, end).toLowerCase(Locale.US);
+    }
+
+    private static String getAccept(Map<String, String> headers) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if ("accept".equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                    return header.getValue().toLowerCase(Locale.US);
+                }
+            }
+        }
+        return "";
+    }
+}
@@ -7,12 +7,24 @@ import be.gesprokengazet.R;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Locale;
 
 /**
  * News site configuration for vrtnws.be
  */
 public class VRTNewsSiteConfiguration extends NewsSiteConfiguration {
+    // Ads, analytics and social media widgets
+    private static final ResourceFilter RESOURCE_FILTER = new ResourceFilter(
+            Collections.<String>emptyList(),
+            Arrays.asList(
+                    "^https?://[^/]*(google-analytics|googletagmanager|googletagservices|" +
+                            "googlesyndication|doubleclick)\\.",
+                    "^https?://[^/]*(facebook|fbcdn|twitter|instagram)\\.(com|net)/",
+                    "^https?://[^/]*(chartbeat|gemius|scorecardresearch|outbrain|" +
+                            "taboola|adform|cxense|hotjar)\\."));
+
     private final String mTocJS;
     private final String mArticleJS;
 
@@ -61,4 +73,9 @@ public class VRTNewsSiteConfiguration extends NewsSiteConfiguration {
     public String getArticleScrapingJavascript() {
         return mArticleJS;
     }
+
+    @Override
+    public ResourceFilter getResourceFilter() {
+        return RESOURCE_FILTER;
+    }
 }
@@ -1,6 +1,7 @@
 package be.gesprokengazet.news;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,4 +31,33 @@ public class WebResource {
     public synchronized Map<String, String> getContent() {
         return mContent;
     }
+
+    /**
+     * @return whether the content was downloaded, or restored.
+     */
+    public synchronized boolean hasContent() {
+        return !mContent.isEmpty();
+    }
+
+    /**
+     * @return the number of characters of the content.
+     */
+    public synchronized int getContentLength() {
+        int length = 0;
+        for (Map.Entry<String, String> content : mContent.entrySet()) {
+            length += content.getKey().length() + content.getValue().length();
+        }
+        return length;
+    }
+
+    /**
+     * Sets the content that was scraped, every text with its url at the same index.
+     */
+    void setScraped(List<String> texts, List<String> urls) {
+        Map<String, String> content = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            content.put(texts.get(i), urls.get(i));
+        }
+        setContent(content);
+    }
 }
@@ -2,17 +2,34 @@ package be.gesprokengazet.news;
 
 import android.annotation.SuppressLint;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.text.Html;
 import android.text.Spanned;
 import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import be.gesprokengazet.R;
+import be.gesprokengazet.utils.LogHelper;
+import be.gesprokengazet.utils.MetricsRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 /**
  * Scrapes the news website to obtain a list of articles URL's, and to download the content of
@@ -20,73 +37,366 @@ import be.gesprokengazet.R;
  * <p>
  * It makes use of a single WebView to access the web, therefore no concurrent access is allowed.
  * This must be guaranteed by the calling code.
+ * <p>
+ * Requests that the {@link ResourceFilter} blocks get an empty response, so the page is ready to
+ * be scraped without waiting for them.
+ * <p>
+ * The content is scraped as soon as the document is parsed, without waiting for its images,
+ * scripts and frames. When that isn't detected, it is scraped once the page finished loading.
+ * <p>
+ * A scrape that doesn't finish before its deadline is stopped and reported as an error, so a
+ * page that never loads or a script that fails can't hold up the scrapes after it.
  */
 class WebScraper<T extends WebResource> {
+    private static final String TAG = LogHelper.makeLogTag(WebScraper.class);
+
+    // Installed as soon as a page starts loading, it reports when the document is parsed. The
+    // url is checked because the previous page may still be around at that moment.
+    private static final String DOM_READY_PROBE = "(function(url) {" +
+            "  if (document.URL !== url) return;" +
+            "  if (document.readyState === 'loading') {" +
+            "    document.addEventListener('DOMContentLoaded', function() {" +
+            "      window.ContentScraper.ready();" +
+            "    });" +
+            "  } else {" +
+            "    window.ContentScraper.ready();" +
+            "  }" +
+            "})(%s);";
+
     private final WebView mWebView;
     private final Resources mResources;
+    private final ResourceFilter mResourceFilter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mTimedOut;
+    private volatile boolean mUnreachable;
+    private Load mLoad; // The ongoing scrape, if any
+    // Incremented for every scrape, only the latest one may change its resource
+    private final AtomicInteger mGeneration = new AtomicInteger();
 
-    WebScraper(WebView webView, Resources resources) {
+    WebScraper(WebView webView, Resources resources, ResourceFilter resourceFilter) {
         this.mWebView = webView;
         this.mResources = resources;
+        this.mResourceFilter = resourceFilter;
     }
 
 
     /**
      * Scrapes a url using the given piece of JavaScript. The JS should call
-     * 'window.ContentScraper.content(string)'
-     * for every piece of data it finds, and call 'window.ContentScraper.finished()' when done.
+     * 'window.ContentScraper.deliver(json)' once, with an array of the texts it found, each
+     * followed by its url: '["text", "url", "text", "url"]'. Crossing from JavaScript to Java is
+     * slow, so everything is delivered in a single call.
      * <p>
-     * It must NOT be called concurrently.
+     * It must NOT be called concurrently, it must be called on the UI thread. A scrape that is
+     * still going on is cancelled.
      *
      * @param resource        The url to scrape.
-     * @param callBack   The callback called by the JavaScript code.
+     * @param callBack   The callback called by the JavaScript code. It is called once, unless
+     *                   the scrape is cancelled.
+     * @param deadline   The time the scrape may take, in milliseconds.
      */
     @SuppressLint("SetJavaScriptEnabled")
-    void scrape(final T resource, final String javaScript, final WebResourceCompleted<T> callBack) {
+    void scrape(final T resource, final String javaScript, WebResourceCompleted<T> callBack,
+                long deadline) {
+        Util.assertUIThread();
+        cancel();
+        mTimedOut = false;
+        mUnreachable = false;
+        final Load load = new Load(resource, callBack);
+        mLoad = load;
         WebView.setWebContentsDebuggingEnabled(false);
         mWebView.getSettings().setJavaScriptEnabled(true);
         mWebView.getSettings().setBlockNetworkImage(true); //reduce loaded data
+        final Extraction extraction = new Extraction(load, javaScript);
         mWebView.removeJavascriptInterface("ContentScraper");
-        mWebView.addJavascriptInterface(new JavascriptCallback<>(resource, callBack), "ContentScraper");
+        mWebView.addJavascriptInterface(new JavascriptCallback(load,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // Called from the JavaScript thread
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!load.isOver()) {
+                                    extraction.start("domReady");
+                                }
+                            }
+                        });
+                    }
+                }), "ContentScraper");
         mWebView.setWebViewClient(new WebViewClient() {
+            private boolean mPageStarted;
+
             public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
-                callBack.onError(resource, mResources.getString(R.string.error_no_connection));
+                if (!load.isOver()) {
+                    mTimedOut = errorCode == ERROR_TIMEOUT;
+                    mUnreachable = true;
+                    load.onError(resource, mResources.getString(R.string.error_no_connection));
+                }
+            }
+
+            @Override
+            public void onReceivedHttpError(WebView view, WebResourceRequest request,
+                                            WebResourceResponse errorResponse) {
+                // Only reported from Marshmallow on, before that the error page is scraped
+                if (request.isForMainFrame() && errorResponse.getStatusCode() >= 500 &&
+                        !load.isOver()) {
+                    mUnreachable = true;
+                    load.onError(resource, mResources.getString(R.string.error_site_unavailable));
+                }
+            }
+
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view,
+                                                              WebResourceRequest request) {
+                // Called from a background thread
+                if (request.isForMainFrame() && !load.isOver()) {
+                    // The page of the resource, possibly after a redirect
+                    load.mPageUrls.add(request.getUrl().toString());
+                }
+                String blocked = mResourceFilter.check(request.getUrl().toString(),
+                        request.isForMainFrame(), request.getRequestHeaders());
+                if (blocked == null) {
+                    return null;
+                }
+                count(resource, "blocked");
+                count(resource, "blocked." + blocked);
+                return new WebResourceResponse("text/plain", "utf-8",
+                        new ByteArrayInputStream(new byte[0]));
+            }
+
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                if (load.isOver() || !load.isPageOf(url)) {
+                    return; // Stopped, or another page, e.g. the blank page of a previous scrape
+                }
+                mPageStarted = true;
+                view.evaluateJavascript(String.format(DOM_READY_PROBE, JSONObject.quote(url)),
+                        null);
             }
 
             @Override
             public void onPageFinished(WebView view, String url) {
-                // Inject JavaScript into loaded page to scrape its relevant content, the JS invokes the methods of the call back.
-                mWebView.loadUrl("javascript:" + javaScript);
+                // The previous page may report it finished after this scrape started
+                if (mPageStarted && !load.isOver() && load.isPageOf(url)) {
+                    // Nothing is done when the content was scraped already
+                    extraction.start("pageFinished");
+                }
             }
         });
 
+        mHandler.postDelayed(load.mDeadline, deadline);
         mWebView.loadUrl(resource.getUrl());
     }
 
-    // Called back from the Javascript side. A series of content calls are expected, followed by
-    // a finished call.
-    private static class JavascriptCallback<T extends WebResource> {
-        private final Map<String, String> content = new LinkedHashMap<>();
-        private final T resource;
-        private final WebResourceCompleted<T> callBack;
+    /**
+     * Stops the ongoing scrape, if any, without informing its callback. Must be called on the UI
+     * thread.
+     *
+     * @return whether a scrape was stopped, false if it had finished already.
+     */
+    boolean cancel() {
+        if (mLoad == null) {
+            return false;
+        }
+        boolean stopped = mLoad.finish();
+        mLoad = null;
+        if (stopped) {
+            stop();
+        }
+        return stopped;
+    }
+
+    /**
+     * Stops loading the page and leaves it, so it can't call the scraper anymore.
+     */
+    private void stop() {
+        mWebView.stopLoading();
+        mWebView.removeJavascriptInterface("ContentScraper");
+        mWebView.loadUrl("about:blank");
+    }
+
+    private static void count(WebResource resource, String name) {
+        MetricsRegistry.getInstance().counter(DownloadManager.metric(resource, name)).increment();
+    }
+
+    /**
+     * A single scrape. It passes on the first outcome to the callback, and ignores anything that
+     * comes after it, e.g. a page that finishes after its deadline.
+     */
+    private final class Load implements WebResourceCompleted<T> {
+        private final AtomicBoolean mOver = new AtomicBoolean();
+        // Whether the page loaded and is being scraped, only accessed from the UI thread
+        private boolean mExtracting;
+        private final int mToken = mGeneration.incrementAndGet();
+        private final T mResource;
+        private final WebResourceCompleted<T> mCallBack;
+        // The urls of the page of the resource: its own url and those it was redirected to
+        private final Set<String> mPageUrls = Collections.synchronizedSet(new HashSet<String>());
+
+        private final Runnable mDeadline = new Runnable() {
+            @Override
+            public void run() {
+                if (finish()) {
+                    LogHelper.w(TAG, "Deadline passed for ", mResource);
+                    if (mLoad == Load.this) {
+                        mLoad = null;
+                    }
+                    stop();
+                    mTimedOut = true;
+                    // Once the page is there, it is the scraping that failed, not the site
+                    mUnreachable = !mExtracting;
+                    mCallBack.onError(mResource, mResources.getString(R.string.error_site_timeout));
+                }
+            }
+        };
+
+        Load(T resource, WebResourceCompleted<T> callBack) {
+            mResource = resource;
+            mCallBack = callBack;
+            mPageUrls.add(resource.getUrl());
+        }
+
+        /**
+         * @return whether the given url is the page of the resource, and not e.g. the blank page
+         * that stopped the previous scrape.
+         */
+        boolean isPageOf(String url) {
+            return mPageUrls.contains(url);
+        }
+
+        boolean isOver() {
+            return mOver.get();
+        }
+
+        /**
+         * @return whether this is the latest scrape, and it is still going on. Callbacks of the
+         * page for a scrape that isn't are ignored.
+         */
+        boolean isCurrent() {
+            return mToken == mGeneration.get() && !isOver();
+        }
+
+        /**
+         * Sets the scraped content on the resource, unless the scrape is over already: the
+         * resource may have been handed to another scrape by then.
+         */
+        void complete(List<String> texts, List<String> urls) {
+            if (mToken == mGeneration.get() && finish()) {
+                mResource.setScraped(texts, urls);
+                mCallBack.onSuccess(mResource);
+            }
+        }
+
+        /**
+         * @return whether the scrape was still going on.
+         */
+        boolean finish() {
+            if (mOver.compareAndSet(false, true)) {
+                mHandler.removeCallbacks(mDeadline);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onSuccess(T resource) {
+            if (mToken == mGeneration.get() && finish()) {
+                mCallBack.onSuccess(resource);
+            }
+        }
+
+        @Override
+        public void onError(T resource, String message) {
+            if (mToken == mGeneration.get() && finish()) {
+                mCallBack.onError(resource, message);
+            }
+        }
+    }
+
+    /**
+     * Injects the scraping JavaScript into a page, only once however often it is triggered.
+     */
+    private final class Extraction {
+        private final Load mScrape;
+        private final String mJavaScript;
 
-        JavascriptCallback(T resource, WebResourceCompleted<T> callBack) {
-            this.resource = resource;
-            this.callBack = callBack;
+        Extraction(Load scrape, String javaScript) {
+            mScrape = scrape;
+            mJavaScript = javaScript;
+        }
+
+        /**
+         * Must be called on the UI thread.
+         *
+         * @param trigger why the page is scraped now, it is counted as "extractedAt.trigger".
+         */
+        void start(String trigger) {
+            if (!mScrape.mExtracting) {
+                mScrape.mExtracting = true;
+                count(mScrape.mResource, "extractedAt." + trigger);
+                // Scrapes the relevant content, the JS invokes the methods of the call back.
+                mWebView.evaluateJavascript(mJavaScript, null);
+            }
+        }
+    }
+
+    /**
+     * @return whether the last scrape failed because the site didn't respond in time.
+     */
+    boolean timedOut() {
+        return mTimedOut;
+    }
+
+    /**
+     * @return whether the last scrape failed because the site couldn't be reached, answered with
+     * a server error, or didn't deliver the page in time. Such failures may go away by trying
+     * again later. A page that can't be scraped, e.g. because its script fails, doesn't count.
+     */
+    boolean unreachable() {
+        return mUnreachable;
+    }
+
+    // Called back from the Javascript side. A single deliver call is expected, calls for a scrape
+    // that is over are ignored.
+    private final class JavascriptCallback {
+        private final Load load;
+        private final Runnable onReady;
+
+        JavascriptCallback(Load load, Runnable onReady) {
+            this.load = load;
+            this.onReady = onReady;
         }
 
         @JavascriptInterface
         @SuppressWarnings("unused")
-        public void content(String text, String url) {
-            if (url == null) url = "";
-            this.content.put(cleanString(text), url);
+        public void ready() {
+            onReady.run();
         }
 
+        // Called on the JavaBridge thread, the payload is parsed and cleaned there. The callback
+        // gets all of it at once, with the outcome of the scrape.
         @JavascriptInterface
         @SuppressWarnings("unused")
-        public void finished() {
-            resource.setContent(content);
-            callBack.onSuccess(resource);
+        public void deliver(String json) {
+            if (!load.isCurrent()) {
+                return;
+            }
+            List<String> texts;
+            List<String> urls;
+            try {
+                JSONArray items = new JSONArray(json);
+                texts = new ArrayList<>(items.length() / 2);
+                urls = new ArrayList<>(items.length() / 2);
+                for (int i = 0; i + 1 < items.length(); i += 2) {
+                    texts.add(cleanString(items.getString(i)));
+                    urls.add(items.optString(i + 1));
+                }
+            } catch (JSONException e) {
+                load.onError(load.mResource,
+                        "Could not read the scraped content of " + load.mResource);
+                return;
+            }
+            load.complete(texts, urls);
         }
 
         @NonNull
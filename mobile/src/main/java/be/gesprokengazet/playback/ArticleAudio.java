@@ -0,0 +1,177 @@
+package be.gesprokengazet.playback;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.support.v4.media.MediaMetadataCompat;
+
+import be.gesprokengazet.R;
+import be.gesprokengazet.model.MusicProviderSource;
+import be.gesprokengazet.news.Article;
+import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionStore;
+import be.gesprokengazet.news.NewsSiteConfiguration;
+import be.gesprokengazet.news.Util;
+import be.gesprokengazet.news.WebResourceCompleted;
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Makes the spoken version of articles available to other devices: the article is downloaded,
+ * its utterances are synthesized into the {@link SpeechCache} as far as they weren't already, and
+ * the result is published on the {@link AudioServer} as a single stream.
+ */
+public class ArticleAudio {
+    private static final String TAG = LogHelper.makeLogTag(ArticleAudio.class);
+
+    /**
+     * Notified on the UI thread.
+     */
+    public interface Callback {
+        /**
+         * @param url      Where the audio can be fetched on the local network.
+         * @param duration Duration of the audio, in milliseconds.
+         */
+        void onReady(String url, long duration);
+
+        void onError(String message);
+    }
+
+    private final Context mContext;
+    private final Locale mLocale;
+    private final SpeechEngine mSpeechEngine;
+    private final DownloadManager<Article> mDownloadManager;
+    private final AudioServer mAudioServer;
+    private final SpeechCache mSpeechCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    // Synthesizing takes over the engine, so requests are handled one at a time. Only accessed
+    // from the UI thread.
+    private final Queue<Request> mRequests = new LinkedList<>();
+
+    public ArticleAudio(Context context, NewsSiteConfiguration config, SpeechEngine speechEngine,
+                        DownloadManager<Article> downloadManager, AudioServer audioServer) {
+        mContext = context.getApplicationContext();
+        mLocale = config.getLocale();
+        mSpeechEngine = speechEngine;
+        mDownloadManager = downloadManager;
+        mAudioServer = audioServer;
+        mSpeechCache = new SpeechCache(mContext);
+    }
+
+    /**
+     * Prepares the audio of the article of the given track. Must be called on the UI thread.
+     */
+    public void prepare(MediaMetadataCompat track, Callback callback) {
+        Util.assertUIThread();
+        String url = track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
+        mRequests.add(new Request(EditionStore.getInstance().getArticle(url), callback));
+        if (mRequests.size() == 1) {
+            download(mRequests.peek());
+        }
+    }
+
+    private void download(final Request request) {
+        mDownloadManager.scheduleForDownload(request.mArticle, new WebResourceCompleted<Article>() {
+            @Override
+            public void onSuccess(Article resource) {
+                synthesize(request);
+            }
+
+            @Override
+            public void onError(Article resource, String message) {
+                finish(request, null, 0, message);
+            }
+        });
+    }
+
+    private void synthesize(final Request request) {
+        mSpeechEngine.whenReady(new SpeechEngine.Callback() {
+            @Override
+            public void onReady(TextToSpeech textToSpeech) {
+                final List<String> utterances = SpeechScript.create(request.mArticle.getText(),
+                        mLocale, TextToSpeech.getMaxSpeechInputLength()).getUtterances();
+                mSpeechCache.synthesize(textToSpeech, utterances, mLocale, new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(request, utterances);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                finish(request, null, 0, message);
+            }
+        });
+    }
+
+    // Called from the text-to-speech engine, reading the headers of the audio is left to the
+    // executor.
+    private void publish(final Request request, final List<String> utterances) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<File> parts = new ArrayList<>(utterances.size());
+                for (String utterance : utterances) {
+                    File audio = mSpeechCache.get(utterance, mLocale);
+                    // Utterances that failed to synthesize are skipped
+                    if (audio != null) {
+                        parts.add(audio);
+                    }
+                }
+                String url = null;
+                long duration = 0;
+                String error = null;
+                try {
+                    ConcatenatedWav wav = ConcatenatedWav.create(parts);
+                    url = mAudioServer.publish(wav);
+                    duration = wav.getDuration();
+                } catch (IOException e) {
+                    LogHelper.w(TAG, e, "Could not publish the audio of ", request.mArticle);
+                    error = mContext.getString(R.string.error_cast_audio);
+                }
+                finish(request, url, duration, error);
+            }
+        });
+    }
+
+    private void finish(final Request request, final String url, final long duration,
+                        final String error) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRequests.remove(request);
+                if (url != null) {
+                    request.mCallback.onReady(url, duration);
+                } else {
+                    request.mCallback.onError(error);
+                }
+                if (!mRequests.isEmpty()) {
+                    download(mRequests.peek());
+                }
+            }
+        });
+    }
+
+    private static final class Request {
+        private final Article mArticle;
+        private final Callback mCallback;
+
+        Request(Article article, Callback callback) {
+            mArticle = article;
+            mCallback = callback;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package be.gesprokengazet.playback;
+
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal HTTP server that makes synthesized audio available to other devices on the local
+ * network, like a Cast receiver. It only serves what was published, under an unguessable path.
+ * Range requests are supported so the receiver can seek, and the audio is sent from the files
+ * without copying it through the app.
+ */
+public class AudioServer {
+    private static final String TAG = LogHelper.makeLogTag(AudioServer.class);
+
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int MAX_PUBLISHED = 8;
+    private static final int MAX_HEADERS = 64;
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final String CONTENT_TYPE = "audio/wav";
+    private static final String EXTENSION = ".wav";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    // The most recently published audio, by path
+    private final Map<String, ConcatenatedWav> mPublished = Collections.synchronizedMap(
+            new LinkedHashMap<String, ConcatenatedWav>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ConcatenatedWav> eldest) {
+                    return size() > MAX_PUBLISHED;
+                }
+            });
+    private final SecureRandom mRandom = new SecureRandom();
+
+    // Guarded by this
+    private ServerSocketChannel mServer;
+    private ExecutorService mConnections;
+
+    /**
+     * Starts listening on a free port, unless it is running already.
+     */
+    public synchronized void start() throws IOException {
+        if (mServer != null) {
+            return;
+        }
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(0));
+        final ExecutorService connections = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        mServer = server;
+        mConnections = connections;
+        LogHelper.i(TAG, "Serving audio on port ", server.socket().getLocalPort());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(server, connections);
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Stops listening and forgets what was published.
+     */
+    public synchronized void stop() {
+        if (mServer == null) {
+            return;
+        }
+        try {
+            mServer.close();
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not close the server");
+        }
+        mConnections.shutdownNow();
+        mServer = null;
+        mConnections = null;
+        mPublished.clear();
+    }
+
+    /**
+     * @return the url under which the audio is available on the local network.
+     * @throws IOException when the server isn't running, or there is no network to serve on.
+     */
+    String publish(ConcatenatedWav audio) throws IOException {
+        int port;
+        synchronized (this) {
+            if (mServer == null) {
+                throw new IOException("Audio server not running");
+            }
+            port = mServer.socket().getLocalPort();
+        }
+        String address = getLocalAddress();
+        if (address == null) {
+            throw new IOException("No local network address");
+        }
+        String path = "/" + new BigInteger(128, mRandom).toString(32) + EXTENSION;
+        mPublished.put(path, audio);
+        return "http://" + address + ":" + port + path;
+    }
+
+    private void accept(ServerSocketChannel server, ExecutorService connections) {
+        while (true) {
+            final SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (ClosedChannelException e) {
+                return; // Stopped
+            } catch (IOException e) {
+                LogHelper.w(TAG, e, "Could not accept a connection");
+                return;
+            }
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Stopped while accepting
+                closeQuietly(client);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers a single request, the connection is closed afterwards.
+     */
+    private void serve(SocketChannel client) {
+        try {
+            client.socket().setSoTimeout(READ_TIMEOUT);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.socket().getInputStream(), "US-ASCII"));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String range = null;
+            int headers = 0;
+            for (String line = reader.readLine(); line != null && !line.isEmpty();
+                 line = reader.readLine()) {
+                if (++headers > MAX_HEADERS) {
+                    respond(client, "431 Request Header Fields Too Large", null);
+                    return;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0 && "range".equalsIgnoreCase(line.substring(0, colon).trim())) {
+                    range = line.substring(colon + 1).trim();
+                }
+            }
+
+            String[] request = requestLine.split(" ");
+            if (request.length != 3) {
+                respond(client, "400 Bad Request", null);
+                return;
+            }
+            boolean head = "HEAD".equals(request[0]);
+            if (!head && !"GET".equals(request[0])) {
+                respond(client, "405 Method Not Allowed", "Allow: GET, HEAD\r\n");
+                return;
+            }
+            ConcatenatedWav audio = mPublished.get(request[1]);
+            if (audio == null) {
+                respond(client, "404 Not Found", null);
+                return;
+            }
+            send(client, audio, range, head);
+        } catch (IOException e) {
+            // The receiver closes connections it no longer needs, e.g. when seeking.
+            LogHelper.d(TAG, "Serving audio failed: ", e.getMessage());
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    private void send(SocketChannel client, ConcatenatedWav audio, String range, boolean head)
+            throws IOException {
+        long length = audio.getLength();
+        long start = 0;
+        long end = length - 1;
+        String status = "200 OK";
+        StringBuilder headers = new StringBuilder();
+        if (range != null) {
+            String unsatisfiable = "Content-Range: bytes */" + length + "\r\n";
+            Matcher matcher = RANGE.matcher(range);
+            if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                respond(client, "416 Range Not Satisfiable", unsatisfiable);
+                return;
+            }
+            if (matcher.group(1).isEmpty()) {
+                // Suffix: the last bytes
+                start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+            }
+            if (start > end) {
+                respond(client, "416 Range Not Satisfiable", unsatisfiable);
+                return;
+            }
+            status = "206 Partial Content";
+            headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                    .append('/').append(length).append("\r\n");
+        }
+        long count = end - start + 1;
+        headers.append("Content-Type: ").append(CONTENT_TYPE).append("\r\n")
+                .append("Content-Length: ").append(count).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Access-Control-Allow-Origin: *\r\n");
+        writeHead(client, status, headers.toString());
+        if (!head) {
+            audio.transferTo(start, count, client);
+        }
+    }
+
+    private static void respond(SocketChannel client, String status, String headers)
+            throws IOException {
+        writeHead(client, status, (headers == null ? "" : headers) + "Content-Length: 0\r\n");
+    }
+
+    private static void writeHead(SocketChannel client, String status, String headers)
+            throws IOException {
+        String head = String.format(Locale.US, "HTTP/1.1 %s\r\n%sConnection: close\r\n\r\n",
+                status, headers);
+        ByteBuffer buffer = ByteBuffer.wrap(head.getBytes("US-ASCII"));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    /**
+     * @return the IPv4 address of this device on the local network, or null if it has none.
+     */
+    private static String getLocalAddress() throws SocketException {
+        for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!network.isUp() || network.isLoopback() || network.isVirtual()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                    return address.getHostAddress();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+}
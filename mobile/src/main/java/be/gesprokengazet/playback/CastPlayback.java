@@ -21,6 +21,7 @@ import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
+import be.gesprokengazet.ArtworkProvider;
 import be.gesprokengazet.model.MusicProvider;
 import be.gesprokengazet.model.MusicProviderSource;
 import be.gesprokengazet.utils.LogHelper;
@@ -46,12 +47,16 @@ public class CastPlayback implements Playback {
     private static final String TAG = LogHelper.makeLogTag(CastPlayback.class);
 
     private static final String MIME_TYPE_AUDIO_MPEG = "audio/mpeg";
+    private static final String MIME_TYPE_AUDIO_WAV = "audio/wav";
     private static final String ITEM_ID = "itemId";
 
     private final MusicProvider mMusicProvider;
     private final Context mAppContext;
     private final RemoteMediaClient mRemoteMediaClient;
     private final RemoteMediaClient.Listener mRemoteMediaClientListener;
+    private final ArticleAudio mArticleAudio;
+    // The latest article to load, only that one is loaded once its audio is ready.
+    private ArticleAudio.Callback mArticleRequest;
 
     private int mPlaybackState;
 
@@ -60,9 +65,14 @@ public class CastPlayback implements Playback {
     private long mCurrentPosition;
     private String mCurrentMediaId;
 
-    public CastPlayback(MusicProvider musicProvider, Context context) {
+    /**
+     * @param articleAudio Provides the audio of tracks that are spoken articles, which the receiver
+     *                     can't fetch by itself.
+     */
+    public CastPlayback(MusicProvider musicProvider, Context context, ArticleAudio articleAudio) {
         mMusicProvider = musicProvider;
         mAppContext = context.getApplicationContext();
+        mArticleAudio = articleAudio;
 
         CastSession castSession = CastContext.getSharedInstance(mAppContext).getSessionManager()
                 .getCurrentCastSession();
@@ -78,6 +88,7 @@ public class CastPlayback implements Playback {
     @Override
     public void stop(boolean notifyListeners) {
         mRemoteMediaClient.removeListener(mRemoteMediaClientListener);
+        mArticleRequest = null;
         mPlaybackState = PlaybackStateCompat.STATE_STOPPED;
         if (notifyListeners && mCallback != null) {
             mCallback.onPlaybackStatusChanged(mPlaybackState);
@@ -199,21 +210,75 @@ public class CastPlayback implements Playback {
             mCurrentMediaId = mediaId;
             mCurrentPosition = 0;
         }
+        mArticleRequest = null;
+        if (track.containsKey(MusicProviderSource.CUSTOM_METADATA_TRACK_LANGUAGE)) {
+            // The source of an article is its web page, the receiver gets the spoken version
+            // from us instead.
+            loadArticle(mediaId, track, autoPlay);
+        } else {
+            load(mediaId, track, track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE),
+                    MIME_TYPE_AUDIO_MPEG, 0, autoPlay);
+        }
+    }
+
+    private void loadArticle(final String mediaId, final MediaMetadataCompat track,
+                             final boolean autoPlay) {
+        mArticleRequest = new ArticleAudio.Callback() {
+            @Override
+            public void onReady(String url, long duration) {
+                // Playback may have moved on while the audio was prepared
+                if (mArticleRequest != this || !isConnected()) {
+                    return;
+                }
+                mArticleRequest = null;
+                try {
+                    load(mediaId, track, url, MIME_TYPE_AUDIO_WAV, duration, autoPlay);
+                } catch (JSONException e) {
+                    onLoadError(e);
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                if (mArticleRequest == this) {
+                    mArticleRequest = null;
+                    if (mCallback != null) {
+                        mCallback.onError(message);
+                    }
+                }
+            }
+        };
+        mArticleAudio.prepare(track, mArticleRequest);
+    }
+
+    private void load(String mediaId, MediaMetadataCompat track, String url, String contentType,
+                      long duration, boolean autoPlay) throws JSONException {
         JSONObject customData = new JSONObject();
         customData.put(ITEM_ID, mediaId);
-        MediaInfo media = toCastMediaMetadata(track, customData);
+        MediaInfo media = toCastMediaMetadata(track, url, contentType, duration, customData);
         mRemoteMediaClient.load(media, autoPlay, mCurrentPosition, customData);
     }
 
+    private void onLoadError(JSONException e) {
+        LogHelper.e(TAG, e, "Exception loading media");
+        if (mCallback != null) {
+            mCallback.onError(e.getMessage());
+        }
+    }
+
     /**
      * Helper method to convert a {@link android.media.MediaMetadata} to a
      * {@link com.google.android.gms.cast.MediaInfo} used for sending media to the receiver app.
      *
      * @param track {@link com.google.android.gms.cast.MediaMetadata}
+     * @param url where the receiver fetches the audio.
+     * @param contentType MIME type of the audio.
+     * @param duration duration of the audio in milliseconds, 0 if unknown.
      * @param customData custom data specifies the local mediaId used by the player.
      * @return mediaInfo {@link com.google.android.gms.cast.MediaInfo}
      */
-    private static MediaInfo toCastMediaMetadata(MediaMetadataCompat track,
+    private static MediaInfo toCastMediaMetadata(MediaMetadataCompat track, String url,
+                                                 String contentType, long duration,
                                                  JSONObject customData) {
         MediaMetadata mediaMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MUSIC_TRACK);
         mediaMetadata.putString(MediaMetadata.KEY_TITLE,
@@ -226,23 +291,29 @@ public class CastPlayback implements Playback {
                 track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ARTIST));
         mediaMetadata.putString(MediaMetadata.KEY_ALBUM_TITLE,
                 track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM));
-        WebImage image = new WebImage(
-                new Uri.Builder().encodedPath(
-                        track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI))
-                        .build());
-        // First image is used by the receiver for showing the audio album art.
-        mediaMetadata.addImage(image);
-        // Second image is used by Cast Companion Library on the full screen activity that is shown
-        // when the cast dialog is clicked.
-        mediaMetadata.addImage(image);
+        // The receiver can't open content uris of this device
+        String artUri = ArtworkProvider.getSourceUrl(
+                track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI));
+        // Articles don't have album art
+        if (artUri != null) {
+            WebImage image = new WebImage(new Uri.Builder().encodedPath(artUri).build());
+            // First image is used by the receiver for showing the audio album art.
+            mediaMetadata.addImage(image);
+            // Second image is used by Cast Companion Library on the full screen activity that is
+            // shown when the cast dialog is clicked.
+            mediaMetadata.addImage(image);
+        }
 
-        //noinspection ResourceType
-        return new MediaInfo.Builder(track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE))
-                .setContentType(MIME_TYPE_AUDIO_MPEG)
+        MediaInfo.Builder builder = new MediaInfo.Builder(url)
+                .setContentType(contentType)
                 .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
                 .setMetadata(mediaMetadata)
-                .setCustomData(customData)
-                .build();
+                .setCustomData(customData);
+        if (duration > 0) {
+            builder.setStreamDuration(duration);
+        }
+        //noinspection ResourceType
+        return builder.build();
     }
 
     private void setMetadataFromRemote() {
@@ -0,0 +1,229 @@
+package be.gesprokengazet.playback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single WAV stream made of WAV files with the same format, like the synthesized utterances of
+ * an article. Only the headers of the files are read upfront, their samples are sent straight
+ * from the files when the stream is transferred.
+ */
+final class ConcatenatedWav {
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FMT_SIZE = 16; // PCM format, without extension
+    private static final int HEADER_SIZE = RIFF_HEADER_SIZE + CHUNK_HEADER_SIZE + FMT_SIZE +
+            CHUNK_HEADER_SIZE;
+
+    private final byte[] mHeader;
+    private final File[] mFiles;
+    // Location of the samples within each file
+    private final long[] mOffsets;
+    private final long[] mLengths;
+    private final long mLength;
+    private final long mByteRate;
+
+    private ConcatenatedWav(byte[] header, File[] files, long[] offsets, long[] lengths,
+                            long dataLength, long byteRate) {
+        mHeader = header;
+        mFiles = files;
+        mOffsets = offsets;
+        mLengths = lengths;
+        mLength = header.length + dataLength;
+        mByteRate = byteRate;
+    }
+
+    /**
+     * @throws IOException when one of the files can't be read, isn't a PCM WAV file, or doesn't
+     *                     have the same format as the first one.
+     */
+    static ConcatenatedWav create(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            throw new IOException("Nothing to concatenate");
+        }
+        File[] parts = files.toArray(new File[files.size()]);
+        long[] offsets = new long[parts.length];
+        long[] lengths = new long[parts.length];
+        byte[] format = null;
+        long dataLength = 0;
+        for (int i = 0; i < parts.length; i++) {
+            byte[] partFormat = new byte[FMT_SIZE];
+            long[] data = parse(parts[i], partFormat);
+            if (format == null) {
+                format = partFormat;
+            } else if (!Arrays.equals(format, partFormat)) {
+                throw new IOException("Format of " + parts[i] + " differs");
+            }
+            offsets[i] = data[0];
+            lengths[i] = data[1];
+            dataLength += data[1];
+        }
+        if (dataLength > 0xFFFFFFFFL - HEADER_SIZE) {
+            throw new IOException("Too long for a WAV file: " + dataLength);
+        }
+
+        ByteBuffer format16 = ByteBuffer.wrap(format).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(ascii("RIFF")).putInt((int) (HEADER_SIZE - CHUNK_HEADER_SIZE + dataLength))
+                .put(ascii("WAVE"))
+                .put(ascii("fmt ")).putInt(FMT_SIZE).put(format)
+                .put(ascii("data")).putInt((int) dataLength);
+        long byteRate = format16.getInt(8) & 0xFFFFFFFFL;
+        return new ConcatenatedWav(header.array(), parts, offsets, lengths, dataLength, byteRate);
+    }
+
+    /**
+     * @return the number of bytes in the stream, including its header.
+     */
+    long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return the duration of the audio, in milliseconds.
+     */
+    long getDuration() {
+        return mByteRate == 0 ? 0 : (mLength - mHeader.length) * 1000 / mByteRate;
+    }
+
+    /**
+     * Writes part of the stream. The samples are transferred from the files to the target by
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the kernel copy
+     * them when the target is a socket.
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0 || position + count > mLength) {
+            throw new IllegalArgumentException("Range " + position + "+" + count +
+                    " outside of " + mLength);
+        }
+        long end = position + count;
+        if (position < mHeader.length) {
+            int headerCount = (int) Math.min(end, mHeader.length) - (int) position;
+            write(ByteBuffer.wrap(mHeader, (int) position, headerCount), target);
+        }
+
+        long partStart = mHeader.length;
+        for (int i = 0; i < mFiles.length && partStart < end; i++) {
+            long partEnd = partStart + mLengths[i];
+            long from = Math.max(position, partStart);
+            long to = Math.min(end, partEnd);
+            if (from < to) {
+                transfer(mFiles[i], mOffsets[i] + from - partStart, to - from, target);
+            }
+            partStart = partEnd;
+        }
+    }
+
+    private static void transfer(File file, long position, long count, WritableByteChannel target)
+            throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            while (count > 0) {
+                long transferred = channel.transferTo(position, count, target);
+                if (transferred <= 0) {
+                    throw new IOException("Could not transfer " + file);
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the chunks of a WAV file up to its samples.
+     *
+     * @return the offset and length of the samples.
+     */
+    private static long[] parse(File file, byte[] format) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            ByteBuffer buffer =
+                    ByteBuffer.allocate(RIFF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            read(channel, buffer, 0, file);
+            if (!"RIFF".equals(ascii(buffer, 0)) || !"WAVE".equals(ascii(buffer, 8))) {
+                throw new IOException("Not a WAV file: " + file);
+            }
+
+            boolean hasFormat = false;
+            long position = RIFF_HEADER_SIZE;
+            buffer = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + CHUNK_HEADER_SIZE <= size) {
+                read(channel, buffer, position, file);
+                String id = ascii(buffer, 0);
+                long chunkSize = buffer.getInt(4) & 0xFFFFFFFFL;
+                long start = position + CHUNK_HEADER_SIZE;
+                if ("fmt ".equals(id)) {
+                    ByteBuffer fmt = ByteBuffer.wrap(format).order(ByteOrder.LITTLE_ENDIAN);
+                    read(channel, fmt, start, file);
+                    if (fmt.getShort(0) != 1) {
+                        throw new IOException("Not PCM: " + file);
+                    }
+                    hasFormat = true;
+                } else if ("data".equals(id)) {
+                    if (!hasFormat) {
+                        throw new IOException("Samples before format in " + file);
+                    }
+                    // Streaming encoders leave the size open, the samples run to the end then.
+                    long length = chunkSize == 0 || start + chunkSize > size ?
+                            size - start : chunkSize;
+                    int blockAlign = ByteBuffer.wrap(format).order(ByteOrder.LITTLE_ENDIAN)
+                            .getShort(12);
+                    if (blockAlign > 0) {
+                        length -= length % blockAlign;
+                    }
+                    return new long[]{start, length};
+                }
+                // Chunks are padded to an even size
+                position = start + chunkSize + (chunkSize & 1);
+            }
+            throw new IOException("No samples in " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position, File file)
+            throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated WAV file: " + file);
+            }
+        }
+    }
+
+    private static String ascii(ByteBuffer buffer, int index) {
+        char[] chars = new char[4];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get(index + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,334 @@
+package be.gesprokengazet.playback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares Dutch news text to be spoken: splits it into sentences, and writes out what a speech
+ * engine tends to get wrong in Belgian texts, such as abbreviations, dates, times, amounts and
+ * numbers with a thousands separator.
+ */
+final class DutchText {
+
+    private static final String[] UNITS = {"nul", "een", "twee", "drie", "vier", "vijf", "zes",
+            "zeven", "acht", "negen", "tien", "elf", "twaalf", "dertien", "veertien", "vijftien",
+            "zestien", "zeventien", "achttien", "negentien"};
+    private static final String[] TENS = {"", "", "twintig", "dertig", "veertig", "vijftig",
+            "zestig", "zeventig", "tachtig", "negentig"};
+    private static final String[] ORDINALS = {"nulde", "eerste", "tweede", "derde", "vierde",
+            "vijfde", "zesde", "zevende", "achtste", "negende", "tiende", "elfde", "twaalfde",
+            "dertiende", "veertiende", "vijftiende", "zestiende", "zeventiende", "achttiende",
+            "negentiende"};
+    private static final String[] MONTHS = {"januari", "februari", "maart", "april", "mei",
+            "juni", "juli", "augustus", "september", "oktober", "november", "december"};
+
+    // Abbreviations and what to say instead, the period is part of the abbreviation.
+    private static final Map<String, String> ABBREVIATIONS = new LinkedHashMap<>();
+    static {
+        ABBREVIATIONS.put("d.w.z.", "dat wil zeggen");
+        ABBREVIATIONS.put("m.a.w.", "met andere woorden");
+        ABBREVIATIONS.put("i.p.v.", "in plaats van");
+        ABBREVIATIONS.put("t.o.v.", "ten opzichte van");
+        ABBREVIATIONS.put("m.b.t.", "met betrekking tot");
+        ABBREVIATIONS.put("o.a.", "onder andere");
+        ABBREVIATIONS.put("a.s.", "aanstaande");
+        ABBREVIATIONS.put("e.a.", "en andere");
+        ABBREVIATIONS.put("bv.", "bijvoorbeeld");
+        ABBREVIATIONS.put("bijv.", "bijvoorbeeld");
+        ABBREVIATIONS.put("enz.", "enzovoort");
+        ABBREVIATIONS.put("dhr.", "meneer");
+        ABBREVIATIONS.put("mevr.", "mevrouw");
+        ABBREVIATIONS.put("mr.", "meester");
+        ABBREVIATIONS.put("dr.", "dokter");
+        ABBREVIATIONS.put("prof.", "professor");
+        ABBREVIATIONS.put("nr.", "nummer");
+        ABBREVIATIONS.put("blz.", "bladzijde");
+        ABBREVIATIONS.put("ca.", "circa");
+        ABBREVIATIONS.put("jl.", "jongstleden");
+        ABBREVIATIONS.put("km/u", "kilometer per uur");
+    }
+    private static final Pattern ABBREVIATION;
+    static {
+        StringBuilder alternatives = new StringBuilder();
+        for (String abbreviation : ABBREVIATIONS.keySet()) {
+            if (alternatives.length() > 0) {
+                alternatives.append('|');
+            }
+            alternatives.append(Pattern.quote(abbreviation));
+        }
+        ABBREVIATION = Pattern.compile("(?<![\\p{L}.])(" + alternatives + ")",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    // Words ending in a period that don't end a sentence, besides the abbreviations above.
+    private static final Set<String> NON_TERMINAL = new HashSet<>(Arrays.asList(
+            "st.", "sint.", "ir.", "ing.", "lic.", "drs.", "jr.", "sr.", "gen.", "kol.", "art.",
+            "max.", "min.", "incl.", "excl.", "resp.", "etc."));
+
+    private static final Pattern DATE =
+            Pattern.compile("\\b(\\d{1,2})([/-])(\\d{1,2})\\2(\\d{4}|\\d{2})\\b");
+    private static final Pattern TIME = Pattern.compile("\\b(\\d{1,2})[u:h](\\d{2})\\b");
+    private static final Pattern HOUR = Pattern.compile("\\b(\\d{1,2})[.:](\\d{2}) uur\\b");
+    private static final Pattern PERCENT = Pattern.compile("(\\d)\\s?%");
+    private static final Pattern EURO_BEFORE =
+            Pattern.compile("(?:€|EUR)\\s?(\\d[\\d.,]*\\d|\\d)");
+    private static final Pattern EURO_AFTER = Pattern.compile("\\s?€");
+    private static final Pattern ORDINAL = Pattern.compile("\\b(\\d+)(?:ste|de|e)\\b");
+    private static final Pattern NUMBER =
+            Pattern.compile("\\d{1,3}(?:\\.\\d{3})+(?:,\\d+)?|\\d+(?:,\\d+)?");
+
+    private DutchText() {
+    }
+
+    /**
+     * Splits a paragraph into sentences.
+     */
+    static List<String> splitSentences(String paragraph) {
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        int length = paragraph.length();
+        for (int i = 0; i < length; i++) {
+            char c = paragraph.charAt(i);
+            if (c != '.' && c != '!' && c != '?' && c != '…') {
+                continue;
+            }
+            // Include repeated terminators and closing quotes or brackets
+            int end = i + 1;
+            while (end < length && ".!?…\"'”’)»".indexOf(paragraph.charAt(end)) >= 0) {
+                end++;
+            }
+            if (end < length && !Character.isWhitespace(paragraph.charAt(end))) {
+                // A decimal, an url, or an abbreviation like "o.a."
+                i = end - 1;
+                continue;
+            }
+            int next = end;
+            while (next < length && Character.isWhitespace(paragraph.charAt(next))) {
+                next++;
+            }
+            boolean terminal = next == length ||
+                    (!Character.isLowerCase(paragraph.charAt(next)) &&
+                            (c != '.' || !isAbbreviation(lastWord(paragraph, start, i + 1))));
+            if (terminal) {
+                addSentence(sentences, paragraph.substring(start, end));
+                start = next;
+            }
+            i = end - 1;
+        }
+        addSentence(sentences, paragraph.substring(start));
+        return sentences;
+    }
+
+    /**
+     * Writes out abbreviations, dates, times, amounts and numbers of a sentence.
+     */
+    static String normalize(String sentence) {
+        String text = sentence;
+
+        Matcher date = DATE.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while (date.find()) {
+            int day = Integer.parseInt(date.group(1));
+            int month = Integer.parseInt(date.group(3));
+            String replacement = date.group();
+            if (day >= 1 && day <= 31 && month >= 1 && month <= 12) {
+                int year = Integer.parseInt(date.group(4));
+                replacement = cardinal(day) + " " + MONTHS[month - 1] + " " +
+                        (date.group(4).length() == 4 ? year(year) : cardinal(year));
+            }
+            date.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        date.appendTail(sb);
+        text = sb.toString();
+
+        text = replaceTimes(HOUR, text);
+        text = replaceTimes(TIME, text);
+        text = PERCENT.matcher(text).replaceAll("$1 procent");
+        text = EURO_BEFORE.matcher(text).replaceAll("$1 euro");
+        text = EURO_AFTER.matcher(text).replaceAll(" euro");
+
+        Matcher ordinal = ORDINAL.matcher(text);
+        sb = new StringBuffer();
+        while (ordinal.find()) {
+            String digits = ordinal.group(1);
+            String replacement = digits.length() > 9 ? ordinal.group() :
+                    ordinal(Long.parseLong(digits));
+            ordinal.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        ordinal.appendTail(sb);
+        text = sb.toString();
+
+        Matcher abbreviation = ABBREVIATION.matcher(text);
+        sb = new StringBuffer();
+        while (abbreviation.find()) {
+            String replacement = ABBREVIATIONS.get(abbreviation.group(1).toLowerCase(Locale.ROOT));
+            abbreviation.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        abbreviation.appendTail(sb);
+        text = sb.toString();
+
+        Matcher number = NUMBER.matcher(text);
+        sb = new StringBuffer();
+        while (number.find()) {
+            number.appendReplacement(sb, Matcher.quoteReplacement(number(number.group())));
+        }
+        number.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * @return the number written out in words, e.g. "drieëntwintig" for 23.
+     */
+    static String cardinal(long n) {
+        if (n < 0) {
+            return "min " + cardinal(-n);
+        }
+        if (n < 20) {
+            return UNITS[(int) n];
+        }
+        if (n < 100) {
+            int unit = (int) (n % 10);
+            String tens = TENS[(int) (n / 10)];
+            if (unit == 0) {
+                return tens;
+            }
+            String units = UNITS[unit];
+            // A diaeresis separates the e's, as in "tweeëntwintig"
+            return units + (units.endsWith("e") ? "ën" : "en") + tens;
+        }
+        if (n < 1000) {
+            long hundreds = n / 100;
+            return (hundreds == 1 ? "" : cardinal(hundreds)) + "honderd" + rest(n % 100, "");
+        }
+        if (n < 1000000) {
+            long thousands = n / 1000;
+            return (thousands == 1 ? "" : cardinal(thousands)) + "duizend" + rest(n % 1000, " ");
+        }
+        if (n < 1000000000L) {
+            return cardinal(n / 1000000) + " miljoen" + rest(n % 1000000, " ");
+        }
+        return cardinal(n / 1000000000L) + " miljard" + rest(n % 1000000000L, " ");
+    }
+
+    /**
+     * @return the ordinal written out in words, e.g. "drieëntwintigste" for 23.
+     */
+    static String ordinal(long n) {
+        if (n < 20) {
+            return ORDINALS[(int) n];
+        }
+        int last = (int) (n % 100);
+        if (n > 100 && last > 0 && last < 20) {
+            String prefix = cardinal(n - last);
+            return prefix + (n - last >= 1000 ? " " : "") + ORDINALS[last];
+        }
+        return cardinal(n) + "ste";
+    }
+
+    /**
+     * @return the year the way it is spoken, e.g. "negentienhonderdvijfentachtig" for 1985.
+     */
+    static String year(int year) {
+        if (year >= 1100 && year < 2000) {
+            return cardinal(year / 100) + "honderd" + rest(year % 100, "");
+        }
+        return cardinal(year);
+    }
+
+    private static String rest(long n, String separator) {
+        return n == 0 ? "" : separator + cardinal(n);
+    }
+
+    // Reads a number as written in Dutch: a period separates thousands, a comma the decimals.
+    private static String number(String digits) {
+        String integral = digits;
+        String decimals = null;
+        int comma = digits.indexOf(',');
+        if (comma >= 0) {
+            integral = digits.substring(0, comma);
+            decimals = digits.substring(comma + 1);
+        }
+        // Without a thousands separator, a number like 1985 is most likely a year.
+        boolean year = decimals == null && integral.length() == 4;
+        integral = integral.replace(".", "");
+        if (integral.length() > 12) {
+            return digits; // Not something to read as a number, e.g. an account number
+        }
+
+        long value = Long.parseLong(integral);
+        String words;
+        if (year && value >= 1100 && value < 2000) {
+            words = year((int) value);
+        } else if (decimals == null && value == 1) {
+            words = "één"; // Stressed, otherwise it's read as the article
+        } else {
+            words = cardinal(value);
+        }
+        if (decimals != null) {
+            words += " komma " + (decimals.startsWith("0") || decimals.length() > 3 ?
+                    digitByDigit(decimals) : cardinal(Long.parseLong(decimals)));
+        }
+        return words;
+    }
+
+    private static String digitByDigit(String digits) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < digits.length(); i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(UNITS[digits.charAt(i) - '0']);
+        }
+        return words.toString();
+    }
+
+    private static String replaceTimes(Pattern pattern, String text) {
+        Matcher time = pattern.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while (time.find()) {
+            int hours = Integer.parseInt(time.group(1));
+            int minutes = Integer.parseInt(time.group(2));
+            String replacement = time.group();
+            if (hours < 24 && minutes < 60) {
+                replacement = cardinal(hours) + " uur" +
+                        (minutes == 0 ? "" : " " + cardinal(minutes));
+            }
+            time.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        time.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String lastWord(String text, int start, int end) {
+        int begin = end;
+        while (begin > start && !Character.isWhitespace(text.charAt(begin - 1))) {
+            begin--;
+        }
+        // Drop opening quotes and brackets
+        while (begin < end && !Character.isLetterOrDigit(text.charAt(begin))) {
+            begin++;
+        }
+        return text.substring(begin, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isAbbreviation(String word) {
+        // A single letter is an initial, as in "J. Peeters"
+        return (word.length() == 2 && Character.isLetter(word.charAt(0))) ||
+                ABBREVIATIONS.containsKey(word) || NON_TERMINAL.contains(word);
+    }
+
+    private static void addSentence(List<String> sentences, String sentence) {
+        String trimmed = sentence.trim();
+        if (!trimmed.isEmpty()) {
+            sentences.add(trimmed);
+        }
+    }
+}
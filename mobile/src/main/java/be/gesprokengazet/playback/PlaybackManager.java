@@ -19,17 +19,25 @@ package be.gesprokengazet.playback;
 import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.TextUtils;
 
+import be.gesprokengazet.BuildConfig;
 import be.gesprokengazet.R;
 import be.gesprokengazet.model.MusicProvider;
 import be.gesprokengazet.utils.LogHelper;
 import be.gesprokengazet.utils.MediaIDHelper;
+import be.gesprokengazet.utils.MetricsRegistry;
 import be.gesprokengazet.utils.WearHelper;
 
+import java.util.Map;
+
 /**
  * Manage the interactions among the container service, the queue manager and the actual playback.
  */
@@ -38,6 +46,12 @@ public class PlaybackManager implements Playback.Callback {
     private static final String TAG = LogHelper.makeLogTag(PlaybackManager.class);
     // Action to thumbs up a media item
     private static final String CUSTOM_ACTION_THUMBS_UP = "be.gesprokengazet.THUMBS_UP";
+    // Command of debug builds, answered with the values of the MetricsRegistry as longs
+    public static final String COMMAND_GET_METRICS = "be.gesprokengazet.GET_METRICS";
+    // State changes within a frame are published together, in milliseconds
+    private static final long PUBLISH_DELAY = 16;
+    // A position this close to the one clients extrapolate from the last state isn't news
+    private static final long POSITION_TOLERANCE = 250;
 
     private MusicProvider mMusicProvider;
     private QueueManager mQueueManager;
@@ -46,6 +60,29 @@ public class PlaybackManager implements Playback.Callback {
     private PlaybackServiceCallback mServiceCallback;
     private MediaSessionCallback mMediaSessionCallback;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mPublish = new Runnable() {
+        @Override
+        public void run() {
+            String error;
+            synchronized (mPublish) {
+                error = mPendingError;
+                mPendingError = null;
+                mPublishScheduled = false;
+            }
+            publishPlaybackState(error);
+        }
+    };
+    // Guarded by mPublish
+    private boolean mPublishScheduled;
+    private String mPendingError;
+
+    // Only accessed from the UI thread
+    private PlaybackStateCompat mPublishedState;
+    private String mFavoriteActionMusicId;
+    private boolean mFavoriteActionIsFavorite;
+    private PlaybackStateCompat.CustomAction mFavoriteAction;
+
     public PlaybackManager(PlaybackServiceCallback serviceCallback, Resources resources,
                            MusicProvider musicProvider, QueueManager queueManager,
                            Playback playback) {
@@ -100,16 +137,38 @@ public class PlaybackManager implements Playback.Callback {
         LogHelper.d(TAG, "handleStopRequest: mState=" + mPlayback.getState() + " error=", withError);
         mPlayback.stop(true);
         mServiceCallback.onPlaybackStop();
-        updatePlaybackState(withError);
+        // Stopping is final, it is published right away.
+        synchronized (mPublish) {
+            mHandler.removeCallbacks(mPublish);
+            mPublishScheduled = false;
+            if (withError == null) {
+                withError = mPendingError;
+            }
+            mPendingError = null;
+        }
+        publishPlaybackState(withError);
     }
 
 
     /**
-     * Update the current media player state, optionally showing an error message.
+     * Update the current media player state, optionally showing an error message. Updates that
+     * follow each other closely are published as one, an error is kept until it is published.
      *
      * @param error if not null, error message to present to the user.
      */
     public void updatePlaybackState(String error) {
+        synchronized (mPublish) {
+            if (error != null) {
+                mPendingError = error;
+            }
+            if (!mPublishScheduled) {
+                mPublishScheduled = true;
+                mHandler.postDelayed(mPublish, PUBLISH_DELAY);
+            }
+        }
+    }
+
+    private void publishPlaybackState(String error) {
         LogHelper.d(TAG, "updatePlaybackState, playback state=" + mPlayback.getState());
         long position = PlaybackStateCompat.PLAYBACK_POSITION_UNKNOWN;
         if (mPlayback != null && mPlayback.isConnected()) {
@@ -139,7 +198,12 @@ public class PlaybackManager implements Playback.Callback {
             stateBuilder.setActiveQueueItemId(currentMusic.getQueueId());
         }
 
-        mServiceCallback.onPlaybackStateUpdated(stateBuilder.build());
+        PlaybackStateCompat playbackState = stateBuilder.build();
+        if (isSameAsPublished(playbackState)) {
+            return;
+        }
+        mPublishedState = playbackState;
+        mServiceCallback.onPlaybackStateUpdated(playbackState);
 
         if (state == PlaybackStateCompat.STATE_PLAYING ||
                 state == PlaybackStateCompat.STATE_PAUSED) {
@@ -158,16 +222,54 @@ public class PlaybackManager implements Playback.Callback {
             return;
         }
         String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
-        int favoriteIcon = mMusicProvider.isFavorite(musicId) ?
-                R.drawable.ic_star_on : R.drawable.ic_star_off;
-        LogHelper.d(TAG, "updatePlaybackState, setting Favorite custom action of music ",
-                musicId, " current favorite=", mMusicProvider.isFavorite(musicId));
-        Bundle customActionExtras = new Bundle();
-        WearHelper.setShowCustomActionOnWear(customActionExtras, true);
-        stateBuilder.addCustomAction(new PlaybackStateCompat.CustomAction.Builder(
-                CUSTOM_ACTION_THUMBS_UP, mResources.getString(R.string.favorite), favoriteIcon)
-                .setExtras(customActionExtras)
-                .build());
+        boolean favorite = mMusicProvider.isFavorite(musicId);
+        // The action only changes with the track, or when it is (un)marked as favorite.
+        if (mFavoriteAction == null || !TextUtils.equals(musicId, mFavoriteActionMusicId) ||
+                favorite != mFavoriteActionIsFavorite) {
+            LogHelper.d(TAG, "updatePlaybackState, setting Favorite custom action of music ",
+                    musicId, " current favorite=", favorite);
+            int favoriteIcon = favorite ? R.drawable.ic_star_on : R.drawable.ic_star_off;
+            Bundle customActionExtras = new Bundle();
+            WearHelper.setShowCustomActionOnWear(customActionExtras, true);
+            mFavoriteAction = new PlaybackStateCompat.CustomAction.Builder(
+                    CUSTOM_ACTION_THUMBS_UP, mResources.getString(R.string.favorite), favoriteIcon)
+                    .setExtras(customActionExtras)
+                    .build();
+            mFavoriteActionMusicId = musicId;
+            mFavoriteActionIsFavorite = favorite;
+        }
+        stateBuilder.addCustomAction(mFavoriteAction);
+    }
+
+    /**
+     * @return whether publishing the given state wouldn't tell clients anything new.
+     */
+    private boolean isSameAsPublished(PlaybackStateCompat state) {
+        PlaybackStateCompat published = mPublishedState;
+        if (published == null ||
+                published.getState() != state.getState() ||
+                published.getActions() != state.getActions() ||
+                published.getActiveQueueItemId() != state.getActiveQueueItemId() ||
+                !TextUtils.equals(published.getErrorMessage(), state.getErrorMessage()) ||
+                published.getCustomActions().size() != state.getCustomActions().size()) {
+            return false;
+        }
+        for (int i = 0; i < state.getCustomActions().size(); i++) {
+            if (published.getCustomActions().get(i) != state.getCustomActions().get(i)) {
+                return false;
+            }
+        }
+        if (state.getPosition() == PlaybackStateCompat.PLAYBACK_POSITION_UNKNOWN ||
+                published.getPosition() == PlaybackStateCompat.PLAYBACK_POSITION_UNKNOWN) {
+            return state.getPosition() == published.getPosition();
+        }
+        // Clients extrapolate the position while playing.
+        long expected = published.getPosition();
+        if (published.getState() == PlaybackStateCompat.STATE_PLAYING) {
+            expected += (long) ((state.getLastPositionUpdateTime() -
+                    published.getLastPositionUpdateTime()) * published.getPlaybackSpeed());
+        }
+        return Math.abs(state.getPosition() - expected) <= POSITION_TOLERANCE;
     }
 
     private long getAvailableActions() {
@@ -345,6 +447,20 @@ public class PlaybackManager implements Playback.Callback {
             }
         }
 
+        @Override
+        public void onCommand(String command, Bundle extras, ResultReceiver cb) {
+            if (BuildConfig.DEBUG && COMMAND_GET_METRICS.equals(command) && cb != null) {
+                Bundle metrics = new Bundle();
+                for (Map.Entry<String, Long> metric :
+                        MetricsRegistry.getInstance().snapshot().entrySet()) {
+                    metrics.putLong(metric.getKey(), metric.getValue());
+                }
+                cb.send(0, metrics);
+            } else {
+                LogHelper.w(TAG, "Unsupported command: ", command);
+            }
+        }
+
         /**
          * Handle free and contextual searches.
          * <p/>
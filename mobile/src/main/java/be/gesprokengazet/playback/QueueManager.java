@@ -17,13 +17,13 @@
 package be.gesprokengazet.playback;
 
 import android.content.res.Resources;
-import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 
-import be.gesprokengazet.AlbumArtCache;
+import be.gesprokengazet.ArtworkProvider;
 import be.gesprokengazet.R;
 import be.gesprokengazet.model.MusicProvider;
 import be.gesprokengazet.utils.LogHelper;
@@ -211,31 +211,17 @@ public class QueueManager {
             throw new IllegalArgumentException("Invalid musicId " + musicId);
         }
 
-        mListener.onMetadataChanged(metadata);
-
         // Set the proper album artwork on the media session, so it can be shown in the
-        // locked screen and in other places.
-        if (metadata.getDescription().getIconBitmap() == null &&
-                metadata.getDescription().getIconUri() != null) {
-            String albumUri = metadata.getDescription().getIconUri().toString();
-            AlbumArtCache.getInstance().fetch(albumUri, new AlbumArtCache.FetchListener() {
-                @Override
-                public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
-                    mMusicProvider.updateMusicArt(musicId, bitmap, icon);
-
-                    // If we are still playing the same music, notify the listeners:
-                    MediaSessionCompat.QueueItem currentMusic = getCurrentMusic();
-                    if (currentMusic == null) {
-                        return;
-                    }
-                    String currentPlayingId = MediaIDHelper.extractMusicIDFromMediaID(
-                            currentMusic.getDescription().getMediaId());
-                    if (musicId.equals(currentPlayingId)) {
-                        mListener.onMetadataChanged(mMusicProvider.getMusic(currentPlayingId));
-                    }
-                }
-            });
+        // locked screen and in other places. Only a uri is set, controllers fetch the image
+        // through the ArtworkProvider themselves.
+        Uri artUri = metadata.getDescription().getIconUri();
+        if (artUri != null && ("http".equals(artUri.getScheme()) ||
+                "https".equals(artUri.getScheme()))) {
+            mMusicProvider.updateMusicArt(musicId, ArtworkProvider.getUri(artUri.toString()));
+            metadata = mMusicProvider.getMusic(musicId);
         }
+
+        mListener.onMetadataChanged(metadata);
     }
 
     public interface MetadataUpdateListener {
@@ -0,0 +1,159 @@
+package be.gesprokengazet.playback;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+
+import be.gesprokengazet.utils.LogHelper;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store of synthesized utterances on local storage. The audio is addressed by the text (and
+ * locale) it was synthesized from, so it can be reused by whoever speaks that text later on,
+ * see {@link TextToSpeech#addSpeech(CharSequence, File)}.
+ */
+public class SpeechCache {
+    private static final String TAG = LogHelper.makeLogTag(SpeechCache.class);
+
+    private static final String DIRECTORY = "speech";
+    private static final String EXTENSION = ".wav";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    // Synthesized audio is only relevant for the news of the day, don't keep it longer than that.
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(2);
+
+    private final File mDirectory;
+
+    public SpeechCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * @return the synthesized audio of the given text, or null if it was not synthesized yet.
+     */
+    public File get(String text, Locale locale) {
+        File file = fileFor(text, locale);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Synthesizes all texts that are not available yet. The given text-to-speech instance must be
+     * initialized already, and its utterance progress listener is taken over. Audio that is too
+     * old to still be of use is removed once the new audio is written.
+     *
+     * @param done Called once all texts are synthesized, or failed to do so.
+     */
+    public void synthesize(TextToSpeech textToSpeech, List<String> texts, Locale locale,
+                           final Runnable done) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            LogHelper.w(TAG, "Could not create ", mDirectory);
+            done.run();
+            return;
+        }
+
+        final List<String> missing = new ArrayList<>();
+        for (String text : texts) {
+            if (get(text, locale) == null && !missing.contains(text)) {
+                missing.add(text);
+            }
+        }
+        if (missing.isEmpty()) {
+            done.run();
+            return;
+        }
+
+        final List<File> targets = new ArrayList<>(missing.size());
+        for (String text : missing) {
+            targets.add(fileFor(text, locale));
+        }
+        final Runnable finish = new Runnable() {
+            @Override
+            public void run() {
+                trim(mDirectory);
+                done.run();
+            }
+        };
+        final AtomicInteger remaining = new AtomicInteger(missing.size());
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                File target = targets.get(Integer.parseInt(utteranceId));
+                File temp = new File(target.getPath() + TEMP_EXTENSION);
+                if (!temp.renameTo(target)) {
+                    LogHelper.w(TAG, "Could not store synthesized speech ", target);
+                }
+                countDown();
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                File target = targets.get(Integer.parseInt(utteranceId));
+                //noinspection ResultOfMethodCallIgnored
+                new File(target.getPath() + TEMP_EXTENSION).delete();
+                countDown();
+            }
+
+            private void countDown() {
+                if (remaining.decrementAndGet() == 0) {
+                    finish.run();
+                }
+            }
+        });
+
+        for (int i = 0; i < missing.size(); i++) {
+            File temp = new File(targets.get(i).getPath() + TEMP_EXTENSION);
+            int outcome = textToSpeech.synthesizeToFile(missing.get(i), new Bundle(), temp,
+                    String.valueOf(i));
+            if (outcome == TextToSpeech.ERROR && remaining.decrementAndGet() == 0) {
+                finish.run();
+            }
+        }
+    }
+
+    /**
+     * Removes audio that is too old to still be of use. Several caches may write at once.
+     */
+    private static synchronized void trim(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long threshold = System.currentTimeMillis() - MAX_AGE;
+        for (File file : files) {
+            if (file.lastModified() < threshold && !file.delete()) {
+                LogHelper.w(TAG, "Could not remove ", file);
+            }
+        }
+    }
+
+    private File fileFor(String text, Locale locale) {
+        return new File(mDirectory, hash(locale.toString() + '|' + text) + EXTENSION);
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Both are always available, a programming error.
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package be.gesprokengazet.playback;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+
+import be.gesprokengazet.R;
+import be.gesprokengazet.news.Util;
+import be.gesprokengazet.utils.LogHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text-to-speech engine that prepares itself in the background: binding to the engine, selecting
+ * the voice and a silent warm-up utterance all happen off the UI thread. Requests to speak wait
+ * for that through {@link #whenReady(Callback)} instead of blocking.
+ */
+public class SpeechEngine {
+    private static final String TAG = LogHelper.makeLogTag(SpeechEngine.class);
+
+    private static final long INIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final String WARM_UP_UTTERANCE = "warmUp";
+
+    /**
+     * Notified on the UI thread once the engine can be used.
+     */
+    public interface Callback {
+        void onReady(TextToSpeech textToSpeech);
+
+        void onError(String message);
+    }
+
+    private final Context mContext;
+    private final Locale mLocale;
+    private final TextToSpeech mTextToSpeech;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // The locale the voice speaks, first set on the executor, then changed on the UI thread
+    private volatile Locale mVoiceLocale;
+
+    // Only accessed from the UI thread
+    private final List<Callback> mPending = new ArrayList<>();
+    private boolean mReady;
+    private String mError;
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            // The engine may still come up later on, so this doesn't fail future requests.
+            LogHelper.w(TAG, "Text-to-speech not ready after ", INIT_TIMEOUT, "ms");
+            failPending(mContext.getString(R.string.error_tts_timeout));
+        }
+    };
+
+    /**
+     * Starts binding to the text-to-speech engine and configuring it for the given locale.
+     */
+    public SpeechEngine(Context context, Locale locale) {
+        mContext = context.getApplicationContext();
+        mLocale = locale;
+        mTextToSpeech = new TextToSpeech(mContext, new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(final int status) {
+                if (mExecutor.isShutdown()) {
+                    return; // Shut down before the engine came up
+                }
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        prepare(status);
+                    }
+                });
+            }
+        });
+        mHandler.postDelayed(mTimeout, INIT_TIMEOUT);
+    }
+
+    /**
+     * Configures the voice used to read the news. Audio that is synthesized upfront must use the
+     * same settings, otherwise the voice changes in the middle of an article.
+     *
+     * @return the outcome of {@link TextToSpeech#setLanguage(Locale)}.
+     */
+    public static int configureVoice(TextToSpeech textToSpeech, Locale locale) {
+        int available = textToSpeech.setLanguage(locale);
+        // Default dutch voice is a tad too fast to be pleasing for the long texts we're reading
+        textToSpeech.setSpeechRate(0.95f);
+        textToSpeech.setPitch(0.8f); // Speak a bit lower, like they do on radio and tv
+        return available;
+    }
+
+    /**
+     * Switches the voice to the given locale, unless it speaks that one already. Only use this
+     * once the engine is ready.
+     *
+     * @return the outcome of {@link TextToSpeech#setLanguage(Locale)}, or
+     * {@link TextToSpeech#LANG_AVAILABLE} if the voice was kept.
+     */
+    public int useVoice(Locale locale) {
+        Util.assertUIThread();
+        if (locale.equals(mVoiceLocale)) {
+            return TextToSpeech.LANG_AVAILABLE;
+        }
+        int available = configureVoice(mTextToSpeech, locale);
+        if (available >= TextToSpeech.LANG_AVAILABLE) {
+            mVoiceLocale = locale;
+        }
+        return available;
+    }
+
+    /**
+     * @return the engine, which may not be ready yet. Stopping it is always safe.
+     */
+    public TextToSpeech getTextToSpeech() {
+        return mTextToSpeech;
+    }
+
+    /**
+     * Calls back as soon as the engine is ready, immediately if it is already.
+     */
+    public void whenReady(Callback callback) {
+        Util.assertUIThread();
+        if (mError != null) {
+            callback.onError(mError);
+        } else if (mReady) {
+            callback.onReady(mTextToSpeech);
+        } else {
+            mPending.add(callback);
+        }
+    }
+
+    public void shutdown() {
+        mHandler.removeCallbacks(mTimeout);
+        mPending.clear();
+        mExecutor.shutdown();
+        mTextToSpeech.shutdown();
+    }
+
+    // Runs on the executor, setting the language may take a while.
+    private void prepare(int status) {
+        if (status != TextToSpeech.SUCCESS) {
+            fail(mContext.getString(R.string.error_tts_timeout));
+            return;
+        }
+        int available = configureVoice(mTextToSpeech, mLocale);
+        if (available == TextToSpeech.LANG_NOT_SUPPORTED) {
+            fail(mContext.getString(R.string.error_lang_not_supported));
+            return;
+        }
+        if (available == TextToSpeech.LANG_MISSING_DATA) {
+            fail(mContext.getString(R.string.error_lang_missing_data));
+            return;
+        }
+        mVoiceLocale = mLocale;
+
+        // Speak a single word without volume, which loads the voice so the first real sentence
+        // starts without delay.
+        mTextToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                ready();
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                ready();
+            }
+        });
+        Bundle params = new Bundle();
+        params.putFloat(TextToSpeech.Engine.KEY_PARAM_VOLUME, 0f);
+        int outcome = mTextToSpeech.speak(mLocale.getDisplayLanguage(mLocale),
+                TextToSpeech.QUEUE_FLUSH, params, WARM_UP_UTTERANCE);
+        if (outcome == TextToSpeech.ERROR) {
+            // Warming up is only an optimization.
+            ready();
+        }
+    }
+
+    private void ready() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReady) {
+                    return;
+                }
+                LogHelper.d(TAG, "Text-to-speech ready");
+                mReady = true;
+                mHandler.removeCallbacks(mTimeout);
+                List<Callback> pending = new ArrayList<>(mPending);
+                mPending.clear();
+                for (Callback callback : pending) {
+                    callback.onReady(mTextToSpeech);
+                }
+            }
+        });
+    }
+
+    private void fail(final String message) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                LogHelper.w(TAG, "Text-to-speech unavailable: ", message);
+                mError = message;
+                mHandler.removeCallbacks(mTimeout);
+                failPending(message);
+            }
+        });
+    }
+
+    private void failPending(String message) {
+        List<Callback> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Callback callback : pending) {
+            callback.onError(message);
+        }
+    }
+}
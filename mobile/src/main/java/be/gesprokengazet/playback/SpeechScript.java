@@ -0,0 +1,81 @@
+package be.gesprokengazet.playback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The text of an article the way it is handed to the speech engine: one utterance per sentence,
+ * with numbers, dates and abbreviations written out. Utterances are identified by their index,
+ * see {@link #getUtteranceId(int)}.
+ */
+public final class SpeechScript {
+    private static final String DUTCH = "nl";
+
+    private final List<String> mUtterances;
+
+    private SpeechScript(List<String> utterances) {
+        mUtterances = Collections.unmodifiableList(utterances);
+    }
+
+    /**
+     * @param maxLength The longest text the speech engine accepts, longer sentences are split.
+     */
+    public static SpeechScript create(List<String> paragraphs, Locale locale, int maxLength) {
+        boolean dutch = DUTCH.equals(locale.getLanguage());
+        List<String> utterances = new ArrayList<>();
+        for (String paragraph : paragraphs) {
+            for (String sentence : DutchText.splitSentences(paragraph)) {
+                String text = dutch ? DutchText.normalize(sentence) : sentence;
+                while (text.length() > maxLength) {
+                    int split = splitPoint(text, maxLength);
+                    utterances.add(text.substring(0, split).trim());
+                    text = text.substring(split).trim();
+                }
+                if (!text.isEmpty()) {
+                    utterances.add(text);
+                }
+            }
+        }
+        return new SpeechScript(utterances);
+    }
+
+    public int size() {
+        return mUtterances.size();
+    }
+
+    public String get(int index) {
+        return mUtterances.get(index);
+    }
+
+    public List<String> getUtterances() {
+        return mUtterances;
+    }
+
+    public static String getUtteranceId(int index) {
+        return String.valueOf(index);
+    }
+
+    /**
+     * @return the index of the utterance with the given id, or -1 if it isn't one of a script.
+     */
+    public static int getIndex(String utteranceId) {
+        try {
+            return Integer.parseInt(utteranceId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Prefers splitting after a comma or semicolon, then at a space.
+    private static int splitPoint(String text, int maxLength) {
+        int split = Math.max(text.lastIndexOf(", ", maxLength - 1),
+                text.lastIndexOf("; ", maxLength - 1));
+        if (split > 0) {
+            return split + 1;
+        }
+        split = text.lastIndexOf(' ', maxLength);
+        return split > 0 ? split : maxLength;
+    }
+}
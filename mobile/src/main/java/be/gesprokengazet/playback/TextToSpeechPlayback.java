@@ -4,7 +4,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.UtteranceProgressListener;
 import android.support.v4.media.MediaMetadataCompat;
@@ -13,21 +17,23 @@ import android.text.TextUtils;
 
 import be.gesprokengazet.MusicService;
 import be.gesprokengazet.R;
+import be.gesprokengazet.model.ListeningHistory;
 import be.gesprokengazet.model.MusicProvider;
 import be.gesprokengazet.model.MusicProviderSource;
 import be.gesprokengazet.news.Article;
 import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionStore;
 import be.gesprokengazet.news.NewsSiteConfiguration;
+import be.gesprokengazet.news.Priority;
 import be.gesprokengazet.news.Util;
 import be.gesprokengazet.news.WebResourceCompleted;
 import be.gesprokengazet.utils.LogHelper;
 import be.gesprokengazet.utils.MediaIDHelper;
 
-import java.util.List;
+import java.io.File;
+import java.util.LinkedHashMap;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
@@ -47,6 +53,19 @@ public final class TextToSpeechPlayback implements Playback {
     // we have full audio focus
     private static final int AUDIO_FOCUSED = 2;
 
+    private static final int MAX_SCRIPTS = 10;
+
+    // Preferences of the settings screen, on what separates an article from the next one
+    private static final String PREF_TRANSITION_PAUSE = "transitionPause"; // ms, as a string
+    private static final String PREF_TRANSITION_CUE = "transitionCue";
+    private static final String DEFAULT_TRANSITION_PAUSE = "1500";
+    private static final long LEAD_IN = 200; // ms of silence before reading starts
+    private static final String CUE_EARCON = "[articleCue]";
+
+    // Utterances besides the sentences of an article
+    private static final String PAUSE = "pause";
+    private static final String CUE = "cue";
+
     private final Context mContext;
     private boolean mPlayOnFocusGain;
     private Callback mCallback;
@@ -79,24 +98,68 @@ public final class TextToSpeechPlayback implements Playback {
 
     private int mState = PlaybackStateCompat.STATE_NONE;
 
-    private TextToSpeech mTextToSpeech;
-    private CountDownLatch mTextToSpeechReady = new CountDownLatch(1);
-    private boolean mTextToSpeechInitialized = false;
+    private final SpeechEngine mSpeechEngine;
+    private final TextToSpeech mTextToSpeech;
+    // The latest request to read, only that one is honored once the engine is ready.
+    private SpeechEngine.Callback mReadRequest;
+
+    private final DownloadManager<Article> mDownloadManager;
+
+    // Index in the speech script of the current article
+    private AtomicInteger mCurrentUtteranceIndex = new AtomicInteger(0);
+    // What the engine is speaking, and the article queued behind it. Only accessed from the UI
+    // thread.
+    private Segment mSpeaking;
+    private Segment mQueued;
+    private int mGeneration;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Progress is handled on the UI thread, like everything else.
+    private final UtteranceProgressListener mUtteranceProgressListener =
+            new UtteranceProgressListener() {
+                @Override
+                public void onStart(String utteranceId) {
+                }
 
-    private DownloadManager<Article> mDownloadManager;
+                @Override
+                public void onDone(final String utteranceId) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onUtteranceDone(utteranceId);
+                        }
+                    });
+                }
 
-    private AtomicInteger mCurrentArticleParagraphIndex = new AtomicInteger(0);
-    private final ConcurrentHashMap<String, Article> mCachedArticles = new ConcurrentHashMap<>();
+                @Override
+                public void onError(String utteranceId) {
+                    onDone(utteranceId);
+                }
+            };
     private MediaMetadataCompat mCurrentTrack;
     private Article mCurrentArticle;
 
-    private long mPlayStartTime = -1;
-    private long mLastStartedStreamPos = 0;
+    private long mPlayStartTime = -1; // ns
+    private long mLastStartedStreamPos = 0; // ms
 
     private final QueueManager mQueueManager;
+    private final SpeechCache mSpeechCache;
+    private final Locale mLocale;
+    // Where reading stopped, also after the service was stopped
+    private final ListeningHistory mHistory;
+    // Speech scripts of the most recent articles, only accessed from the UI thread
+    private final Map<Article, SpeechScript> mScripts =
+            new LinkedHashMap<Article, SpeechScript>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Article, SpeechScript> eldest) {
+                    return size() > MAX_SCRIPTS;
+                }
+            };
 
 
-    public TextToSpeechPlayback(Context context, MusicProvider musicProvider, NewsSiteConfiguration config, QueueManager queueManager) {
+    public TextToSpeechPlayback(Context context, MusicProvider musicProvider, NewsSiteConfiguration config,
+                                SpeechEngine speechEngine, DownloadManager<Article> downloadManager,
+                                QueueManager queueManager) {
         Context applicationContext = context.getApplicationContext();
         this.mContext = applicationContext;
         this.mMusicProvider = musicProvider;
@@ -104,22 +167,20 @@ public final class TextToSpeechPlayback implements Playback {
         this.mAudioManager =
                 (AudioManager) applicationContext.getSystemService(Context.AUDIO_SERVICE);
 
-        mDownloadManager = new DownloadManager<>(mContext, config.getArticleScrapingJavascript());
+        mDownloadManager = downloadManager;
 
-        // Create the text to speech, it initializes itself in the background. Meanwhile we continue
-        // with fetching the article list (see below, see initTextToSpeech).
-        mTextToSpeech = new TextToSpeech(mContext, new TextToSpeech.OnInitListener() {
-            @Override
-            public void onInit(int i) {
-                mTextToSpeechReady.countDown();
-            }
-        });
+        // The engine initializes itself in the background, reading waits for it (see readArticle).
+        mSpeechEngine = speechEngine;
+        mTextToSpeech = speechEngine.getTextToSpeech();
         mQueueManager = queueManager;
+        mSpeechCache = new SpeechCache(mContext);
+        mLocale = config.getLocale();
+        mHistory = ListeningHistory.getInstance(mContext);
     }
 
     public void destroy() {
-        mDownloadManager.destroy();
-        mTextToSpeech.shutdown();
+        mSpeechEngine.shutdown();
+        mHistory.flush();
     }
 
     @Override
@@ -134,6 +195,7 @@ public final class TextToSpeechPlayback implements Playback {
         giveUpAudioFocus();
         unregisterAudioNoisyReceiver();
         releaseResources(true);
+        mHistory.flush();
     }
 
     @Override
@@ -187,9 +249,9 @@ public final class TextToSpeechPlayback implements Playback {
 
         if (mPlayStartTime >= 0 ) {
             long now = System.nanoTime();
-            pos += now - mPlayStartTime;
+            pos += (now - mPlayStartTime) / 1000000;
         }
-        return pos / 1000000;
+        return pos;
     }
 
     @Override
@@ -199,14 +261,7 @@ public final class TextToSpeechPlayback implements Playback {
 
     private Article getArticle(MediaMetadataCompat track) {
         String url = track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
-        synchronized (mCachedArticles) {
-            Article article = mCachedArticles.get(url);
-            if (article == null) {
-                article = new Article(url);
-                mCachedArticles.put(url, article);
-            }
-            return article;
-        }
+        return EditionStore.getInstance().getArticle(url);
     }
 
 
@@ -216,31 +271,46 @@ public final class TextToSpeechPlayback implements Playback {
         tryToGetAudioFocus();
         registerAudioNoisyReceiver();
         String mediaId = item.getDescription().getMediaId();
-        boolean mediaHasChanged = !TextUtils.equals(mediaId, mCurrentMediaId);
+        if (isPlayingInternal() && mSpeaking != null &&
+                !TextUtils.equals(mediaId, mCurrentMediaId) &&
+                TextUtils.equals(mediaId, mSpeaking.mMediaId)) {
+            // The engine moved on to this article by itself, it was queued behind the previous one.
+            continueWith(mSpeaking);
+            configurePlayerState();
+            return;
+        }
+
+        // The article is unknown when playback was handed over from another device
+        boolean mediaHasChanged = !TextUtils.equals(mediaId, mCurrentMediaId) ||
+                mCurrentArticle == null;
         if (mediaHasChanged) {
             // No longer a need to download the previous article
             if ( mCurrentArticle != null ) {
                 mDownloadManager.removeForDownload(mCurrentArticle);
             }
 
-            // Play from beginning when seeking to a different article
-            mCurrentArticleParagraphIndex.set(0);
+            // Continue where the user left off when seeking to a different article, or play it
+            // from the beginning.
+            String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+            mCurrentUtteranceIndex.set(mHistory.getResumePoint(musicId));
 
             // Stop talking as immediate feedback to pushing previous/next.
-            mTextToSpeech.stop();
+            stopSpeaking();
 
             mCurrentMediaId = mediaId;
-            mCurrentTrack = mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(mediaId));
+            mCurrentTrack = mMusicProvider.getMusic(musicId);
             mCurrentArticle = getArticle(mCurrentTrack);
 
         } else if (mCurrentArticle != null &&
-                mCurrentArticleParagraphIndex.get() >= mCurrentArticle.getContent().size()) {
+                mCurrentUtteranceIndex.get() >= getScript(mCurrentArticle).size()) {
             // Play from beginning when the end of the content was reached, this is really an edge case.
-            mCurrentArticleParagraphIndex.set(0);
+            mCurrentUtteranceIndex.set(0);
         }
 
         if (mediaHasChanged) {
             setState(PlaybackStateCompat.STATE_BUFFERING);
+            // The position is the time spent reading the current article
+            mLastStartedStreamPos = 0;
             mDownloadManager.scheduleForDownload(mCurrentArticle, new WebResourceCompleted<Article>() {
                 @Override
                 public void onSuccess(Article resource) {
@@ -269,21 +339,64 @@ public final class TextToSpeechPlayback implements Playback {
         configurePlayerState();
     }
 
+    /**
+     * Makes the article that is being spoken the current one, without interrupting the engine.
+     */
+    private void continueWith(Segment segment) {
+        LogHelper.d(TAG, "Continuing with the queued article ", segment.mArticle);
+        mCurrentMediaId = segment.mMediaId;
+        mCurrentTrack = segment.mTrack;
+        mCurrentArticle = segment.mArticle;
+        mCurrentUtteranceIndex.set(segment.mFirst);
+        mLastStartedStreamPos = 0;
+        mPlayStartTime = System.nanoTime();
+        // Same state, but the position started over.
+        if (mCallback != null) {
+            mCallback.onPlaybackStatusChanged(mState);
+        }
+        prefetchNext();
+    }
+
     /**
      * Reads the current article out loud.
      */
     private void readArticle() {
         Util.assertUIThread();
 
-        // Prefetch the next article when we start reading
+        prefetchNext();
+
+        mReadRequest = new SpeechEngine.Callback() {
+            @Override
+            public void onReady(TextToSpeech textToSpeech) {
+                // Playback may have moved on while the engine was getting ready
+                if (mReadRequest == this && isPlayingInternal()) {
+                    mReadRequest = null;
+                    speakArticle();
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                TextToSpeechPlayback.this.onError(message);
+            }
+        };
+        mSpeechEngine.whenReady(mReadRequest);
+    }
+
+    /**
+     * Downloads the next article while the current one is read, so it can be queued behind it.
+     */
+    private void prefetchNext() {
         QueueItem next = mQueueManager.peekQueuePosition(1);
         if (next != null) {
             MediaMetadataCompat nextTrack = mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(next.getDescription().getMediaId()));
             Article nextArticle = getArticle(nextTrack);
 
-            mDownloadManager.scheduleForDownload(nextArticle, new WebResourceCompleted<Article>() {
+            mDownloadManager.scheduleForDownload(nextArticle, Priority.NEXT,
+                    new WebResourceCompleted<Article>() {
                 @Override
                 public void onSuccess(Article resource) {
+                    queueNext();
                 }
 
                 @Override
@@ -291,81 +404,201 @@ public final class TextToSpeechPlayback implements Playback {
                 }
             });
         }
+    }
 
-        String language = mCurrentTrack.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_LANGUAGE);
-        String country = mCurrentTrack.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_COUNTRY);
-        initTextToSpeech(language, country);
+    private void speakArticle() {
+        stopSpeaking();
+        // Articles may be in another language than the one the engine was prepared for
+        int available = mSpeechEngine.useVoice(getLocale(mCurrentTrack));
+        if (available == TextToSpeech.LANG_NOT_SUPPORTED) {
+            onError(mContext.getResources().getString(R.string.error_lang_not_supported));
+            return;
+        }
+        if (available == TextToSpeech.LANG_MISSING_DATA) {
+            onError(mContext.getResources().getString(R.string.error_lang_missing_data));
+            return;
+        }
+        mTextToSpeech.setOnUtteranceProgressListener(mUtteranceProgressListener);
 
-        // Start reading from the current index. This means we re-read the current paragraph
+        // Start reading from the current index. This means we re-read the current sentence
         // after going from pause to play.
-        List<String> text = mCurrentArticle.getText();
-        List<String> toSpeak = text.subList(mCurrentArticleParagraphIndex.get(), text.size());
+        SpeechScript script = getScript(mCurrentArticle);
+        int first = Math.min(mCurrentUtteranceIndex.get(), script.size());
+        mSpeaking = new Segment(++mGeneration, mCurrentMediaId, mCurrentTrack, mCurrentArticle,
+                script);
+        speak(mSpeaking, first, LEAD_IN, false);
+
+        // The next article may be available already
+        queueNext();
+    }
 
-        final CountDownLatch done = new CountDownLatch(toSpeak.size() + 2); //+2 for the silence at the end and the beginning
-        mTextToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
-            @Override
-            public void onStart(String s) {
-            }
+    /**
+     * Queues the next article behind the one that is being spoken, if it is downloaded already.
+     * Only the configured transition separates them then.
+     */
+    private void queueNext() {
+        if (mSpeaking == null || mQueued != null || !isPlayingInternal()) {
+            return;
+        }
+        QueueItem next = mQueueManager.peekQueuePosition(1);
+        if (next == null) {
+            return;
+        }
+        String mediaId = next.getDescription().getMediaId();
+        MediaMetadataCompat track = mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(mediaId));
+        Article article = track == null ? null : getArticle(track);
+        if (article == null || !article.hasContent()) {
+            return; // Queued once it is downloaded
+        }
+        SpeechScript script = getScript(article);
+        if (script.size() == 0) {
+            return; // Nothing to read, played as usual
+        }
+        if (!getLocale(track).equals(getLocale(mSpeaking.mTrack))) {
+            return; // The voice changes once the article is played as usual
+        }
 
-            @Override
-            public void onError(String s) {
-                onDone(s);
-            }
+        // An article the user started on before continues where it was left
+        int first = mHistory.getResumePoint(MediaIDHelper.extractMusicIDFromMediaID(mediaId));
+        if (first >= script.size()) {
+            first = 0;
+        }
+        mQueued = new Segment(++mGeneration, mediaId, track, article, script);
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        long pause = Long.parseLong(
+                preferences.getString(PREF_TRANSITION_PAUSE, DEFAULT_TRANSITION_PAUSE));
+        speak(mQueued, first, pause, preferences.getBoolean(PREF_TRANSITION_CUE, false));
+    }
 
-            @Override
-            public void onDone(String s) {
-                done.countDown();
-                mCurrentArticleParagraphIndex.incrementAndGet();
+    private static Locale getLocale(MediaMetadataCompat track) {
+        return new Locale(track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_LANGUAGE),
+                track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_COUNTRY));
+    }
 
-                if (done.getCount() == 0 && mCallback != null) {
-                    mCallback.onCompletion();
-                }
+    /**
+     * Queues the utterances of an article, from the given index on, preceded by a silence and
+     * optionally a cue right before the article starts.
+     */
+    private void speak(final Segment segment, int first, long silence, boolean cue) {
+        Locale locale = getLocale(segment.mTrack);
+        SpeechScript script = segment.mScript;
+        segment.mFirst = first;
+
+        // Use the audio that was synthesized upfront by the prefetch, if any.
+        for (int i = first; i < script.size(); i++) {
+            File audio = mSpeechCache.get(script.get(i), locale);
+            if (audio != null) {
+                mTextToSpeech.addSpeech(script.get(i), audio);
             }
-        });
+        }
+
+        segment.mRemaining.set(script.size() - first + (silence > 0 ? 1 : 0) + (cue ? 1 : 0));
+        if (silence > 0) {
+            int outcome = mTextToSpeech.playSilentUtterance(silence, TextToSpeech.QUEUE_ADD,
+                    segment.getUtteranceId(PAUSE));
+            handleTtsError(segment, PAUSE, outcome);
+        }
+        if (cue) {
+            // Registering the cue only works once the engine is ready
+            mTextToSpeech.addEarcon(CUE_EARCON, mContext.getPackageName(), R.raw.article_cue);
+            int outcome = mTextToSpeech.playEarcon(CUE_EARCON, TextToSpeech.QUEUE_ADD, null,
+                    segment.getUtteranceId(CUE));
+            handleTtsError(segment, CUE, outcome);
+        }
+        for (int i = first; i < script.size(); i++) {
+            String index = SpeechScript.getUtteranceId(i);
+            int outcome = mTextToSpeech.speak(script.get(i), TextToSpeech.QUEUE_ADD, null,
+                    segment.getUtteranceId(index));
+            handleTtsError(segment, index, outcome);
+        }
+        if (segment.mRemaining.get() == 0) {
+            // Nothing left to read, the article is done right away.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onSegmentDone(segment);
+                }
+            });
+        }
+    }
 
+    // Called on the UI thread for every utterance that was spoken, or failed to.
+    private void onUtteranceDone(String utteranceId) {
+        int separator = utteranceId.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        String generation = utteranceId.substring(0, separator);
+        Segment segment = null;
+        if (mSpeaking != null && generation.equals(String.valueOf(mSpeaking.mGeneration))) {
+            segment = mSpeaking;
+        } else if (mQueued != null && generation.equals(String.valueOf(mQueued.mGeneration))) {
+            segment = mQueued;
+        }
+        if (segment == null) {
+            return; // Speech that was stopped meanwhile
+        }
 
-        int bOutcome = mTextToSpeech.playSilentUtterance(200, TextToSpeech.QUEUE_ADD, "beginningPause");
-        handleTtsError(done, bOutcome);
-        for (String s : toSpeak) {
-            int outcome = mTextToSpeech.speak(s, TextToSpeech.QUEUE_ADD, null, s);
-            handleTtsError(done, outcome);
+        int index = SpeechScript.getIndex(utteranceId.substring(separator + 1));
+        if (index >= 0 && segment == mSpeaking) {
+            mCurrentUtteranceIndex.set(index + 1);
+            mHistory.setResumePoint(MediaIDHelper.extractMusicIDFromMediaID(segment.mMediaId),
+                    index + 1);
+        }
+        if (segment.mRemaining.decrementAndGet() == 0) {
+            onSegmentDone(segment);
         }
-        int eOutcome = mTextToSpeech.playSilentUtterance(1500, TextToSpeech.QUEUE_ADD, "endingPause");
-        handleTtsError(done, eOutcome);
     }
 
-    private void handleTtsError(CountDownLatch done, int outcome) {
-        if (outcome == TextToSpeech.ERROR) {
-            onError(mContext.getResources().getString(R.string.error_tts_queue_refused));
-            done.countDown();
+    private void onSegmentDone(Segment segment) {
+        if (segment != mSpeaking) {
+            return;
+        }
+        mHistory.setPlayed(MediaIDHelper.extractMusicIDFromMediaID(segment.mMediaId));
+        // Whatever was queued behind the article is playing now, PlaybackManager makes it the
+        // current one by asking to play it (see play).
+        mSpeaking = mQueued;
+        mQueued = null;
+        if (mCallback != null) {
+            mCallback.onCompletion();
         }
     }
 
-    private void initTextToSpeech(String language, String country) {
-        try {
-            Locale locale = new Locale(language, country);
+    /**
+     * Stops the engine and forgets about what was queued on it.
+     */
+    private void stopSpeaking() {
+        mTextToSpeech.stop();
+        mSpeaking = null;
+        mQueued = null;
+    }
 
-            if (!mTextToSpeechInitialized || !locale.equals(mTextToSpeech.getVoice().getLocale())) {
-                mTextToSpeechInitialized = true;
+    /**
+     * @return the speech script of a downloaded article. It is computed once per article.
+     */
+    private SpeechScript getScript(Article article) {
+        SpeechScript script = mScripts.get(article);
+        if (script == null) {
+            script = SpeechScript.create(article.getText(), mLocale,
+                    TextToSpeech.getMaxSpeechInputLength());
+            if (article.hasContent()) {
+                mScripts.put(article, script);
+            }
+        }
+        return script;
+    }
 
-                boolean success = mTextToSpeechReady.await(10, TimeUnit.SECONDS);
-                if (!success) {
-                    onError(mContext.getResources().getString(R.string.error_tts_timeout));
-                } else {
-                    int available = mTextToSpeech.setLanguage(locale);
-                    if (available == TextToSpeech.LANG_NOT_SUPPORTED) {
-                        onError(mContext.getResources().getString(R.string.error_lang_not_supported));
-                    }
-                    if (available == TextToSpeech.LANG_MISSING_DATA) {
-                        onError(mContext.getResources().getString(R.string.error_lang_missing_data));
-                    }
-                    // Default dutch voice is a tad too fast to be pleasing for the long texts we're reading
-                    mTextToSpeech.setSpeechRate(0.95f);
-                    mTextToSpeech.setPitch(0.8f); // Speak a bit lower, like they do on radio and tv
+    private void handleTtsError(Segment segment, String utterance, int outcome) {
+        if (outcome == TextToSpeech.ERROR) {
+            onError(mContext.getResources().getString(R.string.error_tts_queue_refused));
+            // Counts as done, so the article still completes.
+            final String utteranceId = segment.getUtteranceId(utterance);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onUtteranceDone(utteranceId);
                 }
-            }
-        } catch (InterruptedException e) {
-            onError(mContext.getResources().getString(R.string.error_tts_interrupted));
+            });
         }
     }
 
@@ -380,19 +613,27 @@ public final class TextToSpeechPlayback implements Playback {
         // Pause player and cancel the 'foreground service' state.
         mPlayOnFocusGain = false;
 
-        mTextToSpeech.stop();
+        stopSpeaking();
         setState(PlaybackStateCompat.STATE_PAUSED);
 
         // While paused, retain the player instance, but give up audio focus.
         releaseResources(false); //this doesn't actually give up audio focus, but it's identical to LocalPlayback's behavior.
         unregisterAudioNoisyReceiver();
+        // Resume points are written once reading stops
+        mHistory.flush();
     }
 
     @Override
     public void seekTo(long position) {
         LogHelper.d(TAG, "seekTo called with ", position);
 
-        throw new RuntimeException("seekTo not implemented in text-to-speech player");
+        // Speech can only be restarted from the beginning, which is also what playback switched
+        // over from another device asks for when it didn't get far yet. Otherwise reading
+        // continues at the current sentence.
+        if (position == 0 && !isPlayingOrBuffering()) {
+            mCurrentUtteranceIndex.set(0);
+            mLastStartedStreamPos = 0;
+        }
     }
 
     @Override
@@ -402,6 +643,11 @@ public final class TextToSpeechPlayback implements Playback {
 
     @Override
     public void setCurrentMediaId(String mediaId) {
+        if (!TextUtils.equals(mediaId, mCurrentMediaId)) {
+            // Another device moved on to a different article, it is looked up when playing.
+            mCurrentTrack = null;
+            mCurrentArticle = null;
+        }
         this.mCurrentMediaId = mediaId;
     }
 
@@ -494,7 +740,7 @@ public final class TextToSpeechPlayback implements Playback {
 
         // Stops and releases player (if requested and available).
         if (releasePlayer) {
-            mTextToSpeech.stop();
+            stopSpeaking();
 
             mPlayOnFocusGain = false;
         }
@@ -513,4 +759,32 @@ public final class TextToSpeechPlayback implements Playback {
             mAudioNoisyReceiverRegistered = false;
         }
     }
+
+    /**
+     * An article, as queued on the text-to-speech engine.
+     */
+    private static final class Segment {
+        private final int mGeneration;
+        private final String mMediaId;
+        private final MediaMetadataCompat mTrack;
+        private final Article mArticle;
+        private final SpeechScript mScript;
+        // Index of the utterance reading started at, only accessed from the UI thread
+        private int mFirst;
+        // Utterances that were not spoken yet
+        private final AtomicInteger mRemaining = new AtomicInteger();
+
+        Segment(int generation, String mediaId, MediaMetadataCompat track, Article article,
+                SpeechScript script) {
+            mGeneration = generation;
+            mMediaId = mediaId;
+            mTrack = track;
+            mArticle = article;
+            mScript = script;
+        }
+
+        String getUtteranceId(String utterance) {
+            return mGeneration + ":" + utterance;
+        }
+    }
 }
@@ -99,6 +99,9 @@ public abstract class ActionBarCastActivity extends AppCompatActivity {
                     case R.id.navigation_allmusic:
                         activityClass = MusicPlayerActivity.class;
                         break;
+                    case R.id.navigation_settings:
+                        activityClass = SettingsActivity.class;
+                        break;
                 }
                 if (activityClass != null) {
                     startActivity(new Intent(ActionBarCastActivity.this, activityClass), extras);
@@ -292,6 +295,8 @@ public abstract class ActionBarCastActivity extends AppCompatActivity {
                 });
         if (MusicPlayerActivity.class.isAssignableFrom(getClass())) {
             navigationView.setCheckedItem(R.id.navigation_allmusic);
+        } else if (SettingsActivity.class.isAssignableFrom(getClass())) {
+            navigationView.setCheckedItem(R.id.navigation_settings);
         }
     }
 
@@ -30,6 +30,7 @@ import android.support.v4.media.session.PlaybackStateCompat;
 
 import be.gesprokengazet.MusicService;
 import be.gesprokengazet.R;
+import be.gesprokengazet.utils.HttpHelper;
 import be.gesprokengazet.utils.LogHelper;
 import be.gesprokengazet.utils.NetworkHelper;
 import be.gesprokengazet.utils.ResourceHelper;
@@ -49,6 +50,7 @@ public abstract class BaseActivity extends ActionBarCastActivity implements Medi
         super.onCreate(savedInstanceState);
 
         LogHelper.d(TAG, "Activity onCreate");
+        HttpHelper.install(this);
 
         if (Build.VERSION.SDK_INT >= 21) {
             // Since our app icon has the same color as colorPrimary, our entry in the Recent Apps
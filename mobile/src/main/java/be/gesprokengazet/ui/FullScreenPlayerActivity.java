@@ -20,7 +20,6 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
@@ -32,6 +31,7 @@ import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.format.DateUtils;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
@@ -43,11 +43,6 @@ import be.gesprokengazet.MusicService;
 import be.gesprokengazet.R;
 import be.gesprokengazet.utils.LogHelper;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 import static android.view.View.INVISIBLE;
 import static android.view.View.VISIBLE;
 
@@ -57,8 +52,6 @@ import static android.view.View.VISIBLE;
  */
 public class FullScreenPlayerActivity extends ActionBarCastActivity {
     private static final String TAG = LogHelper.makeLogTag(FullScreenPlayerActivity.class);
-    private static final long PROGRESS_UPDATE_INTERNAL = 1000;
-    private static final long PROGRESS_UPDATE_INITIAL_INTERVAL = 100;
 
     private ImageView mSkipPrev;
     private ImageView mSkipNext;
@@ -76,20 +69,26 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
     private ImageView mBackgroundImage;
 
     private String mCurrentArtUrl;
-    private final Handler mHandler = new Handler();
     private MediaBrowserCompat mMediaBrowser;
 
-    private final Runnable mUpdateProgressTask = new Runnable() {
+    // The progress updates on the frame where the seekbar or the elapsed time visibly changes,
+    // while the activity is visible and playing. It doesn't update at all otherwise.
+    private final Choreographer.FrameCallback mUpdateProgressTask =
+            new Choreographer.FrameCallback() {
         @Override
-        public void run() {
-            updateProgress();
+        public void doFrame(long frameTimeNanos) {
+            if (mProgressUpdating) {
+                long position = updateProgress();
+                Choreographer.getInstance().postFrameCallbackDelayed(this,
+                        getDelayToNextChange(position));
+            }
         }
     };
 
-    private final ScheduledExecutorService mExecutorService =
-        Executors.newSingleThreadScheduledExecutor();
-
-    private ScheduledFuture<?> mScheduleFuture;
+    private boolean mProgressUpdating;
+    private boolean mVisible;
+    private boolean mTrackingTouch;
+    private long mShownSeconds = -1;
     private PlaybackStateCompat mLastPlaybackState;
 
     private final MediaControllerCompat.Callback mCallback = new MediaControllerCompat.Callback() {
@@ -189,16 +188,23 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
         mSeekbar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                mStart.setText(DateUtils.formatElapsedTime(progress / 1000));
+                // The progress changes every pixel, the text only every second.
+                long seconds = progress / 1000;
+                if (seconds != mShownSeconds) {
+                    mShownSeconds = seconds;
+                    mStart.setText(DateUtils.formatElapsedTime(seconds));
+                }
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
+                mTrackingTouch = true;
                 stopSeekbarUpdate();
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                mTrackingTouch = false;
                 MediaControllerCompat.getMediaController(FullScreenPlayerActivity.this).getTransportControls().seekTo(seekBar.getProgress());
                 scheduleSeekbarUpdate();
             }
@@ -230,10 +236,7 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
             updateDuration(metadata);
         }
         updateProgress();
-        if (state != null && (state.getState() == PlaybackStateCompat.STATE_PLAYING ||
-                state.getState() == PlaybackStateCompat.STATE_BUFFERING)) {
-            scheduleSeekbarUpdate();
-        }
+        scheduleSeekbarUpdate();
     }
 
     private void updateFromParams(Intent intent) {
@@ -246,29 +249,30 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
         }
     }
 
+    /**
+     * Updates the progress whenever it visibly changes, as long as the activity is visible,
+     * playing and the seekbar isn't being dragged.
+     */
     private void scheduleSeekbarUpdate() {
-        stopSeekbarUpdate();
-        if (!mExecutorService.isShutdown()) {
-            mScheduleFuture = mExecutorService.scheduleAtFixedRate(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            mHandler.post(mUpdateProgressTask);
-                        }
-                    }, PROGRESS_UPDATE_INITIAL_INTERVAL,
-                    PROGRESS_UPDATE_INTERNAL, TimeUnit.MILLISECONDS);
+        if (mProgressUpdating || !mVisible || mTrackingTouch || mLastPlaybackState == null ||
+                mLastPlaybackState.getState() != PlaybackStateCompat.STATE_PLAYING) {
+            return;
         }
+        mProgressUpdating = true;
+        Choreographer.getInstance().postFrameCallback(mUpdateProgressTask);
     }
 
     private void stopSeekbarUpdate() {
-        if (mScheduleFuture != null) {
-            mScheduleFuture.cancel(false);
+        if (mProgressUpdating) {
+            mProgressUpdating = false;
+            Choreographer.getInstance().removeFrameCallback(mUpdateProgressTask);
         }
     }
 
     @Override
     public void onStart() {
         super.onStart();
+        mVisible = true;
         if (mMediaBrowser != null) {
             mMediaBrowser.connect();
         }
@@ -277,6 +281,8 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
     @Override
     public void onStop() {
         super.onStop();
+        mVisible = false;
+        stopSeekbarUpdate();
         if (mMediaBrowser != null) {
             mMediaBrowser.disconnect();
         }
@@ -286,13 +292,6 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        stopSeekbarUpdate();
-        mExecutorService.shutdown();
-    }
-
     private void fetchImageAsync(@NonNull MediaDescriptionCompat description) {
         if (description.getIconUri() == null) {
             return;
@@ -393,9 +392,12 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
             ? INVISIBLE : VISIBLE );
     }
 
-    private void updateProgress() {
+    /**
+     * @return the position shown, in milliseconds.
+     */
+    private long updateProgress() {
         if (mLastPlaybackState == null) {
-            return;
+            return 0;
         }
         long currentPosition = mLastPlaybackState.getPosition();
         if (mLastPlaybackState.getState() == PlaybackStateCompat.STATE_PLAYING) {
@@ -405,8 +407,29 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
             // on MediaControllerCompat.
             long timeDelta = SystemClock.elapsedRealtime() -
                     mLastPlaybackState.getLastPositionUpdateTime();
-            currentPosition += (int) timeDelta * mLastPlaybackState.getPlaybackSpeed();
+            currentPosition += (long) (timeDelta * mLastPlaybackState.getPlaybackSpeed());
+        }
+        int progress = (int) Math.min(currentPosition, mSeekbar.getMax());
+        if (progress != mSeekbar.getProgress()) {
+            mSeekbar.setProgress(progress);
+        }
+        return progress;
+    }
+
+    /**
+     * @param position the position shown, in milliseconds.
+     * @return the time until the seekbar moves a pixel or the elapsed time changes a second,
+     * whichever comes first, in milliseconds.
+     */
+    private long getDelayToNextChange(long position) {
+        long untilSecond = 1000 - position % 1000;
+        long untilPixel = untilSecond;
+        int width = mSeekbar.getWidth() - mSeekbar.getPaddingLeft() - mSeekbar.getPaddingRight();
+        if (width > 0) {
+            long step = Math.max(1, mSeekbar.getMax() / width);
+            untilPixel = step - position % step;
         }
-        mSeekbar.setProgress((int) currentPosition);
+        float speed = mLastPlaybackState.getPlaybackSpeed();
+        return (long) (Math.min(untilSecond, untilPixel) / (speed > 0 ? speed : 1));
     }
 }
@@ -0,0 +1,63 @@
+package be.gesprokengazet.ui;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceFragment;
+
+import be.gesprokengazet.EditionPrefetchService;
+import be.gesprokengazet.R;
+import be.gesprokengazet.utils.LogHelper;
+
+/**
+ * Lets the user choose when the news is downloaded ahead of time, and how it is read.
+ */
+public class SettingsActivity extends ActionBarCastActivity {
+    private static final String TAG = LogHelper.makeLogTag(SettingsActivity.class);
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        LogHelper.d(TAG, "Activity onCreate");
+
+        setContentView(R.layout.activity_settings);
+        initializeToolbar();
+        setTitle(R.string.settings_title);
+
+        if (savedInstanceState == null) {
+            getFragmentManager().beginTransaction()
+                    .replace(R.id.container, new SettingsFragment())
+                    .commit();
+        }
+    }
+
+    public static class SettingsFragment extends PreferenceFragment
+            implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            addPreferencesFromResource(R.xml.preferences);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            getPreferenceScreen().getSharedPreferences()
+                    .registerOnSharedPreferenceChangeListener(this);
+        }
+
+        @Override
+        public void onPause() {
+            super.onPause();
+            getPreferenceScreen().getSharedPreferences()
+                    .unregisterOnSharedPreferenceChangeListener(this);
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+            if (EditionPrefetchService.PREF_PREFETCH_TIME.equals(key)) {
+                EditionPrefetchService.scheduleDaily(getActivity());
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package be.gesprokengazet.utils;
+
+import java.util.Random;
+
+/**
+ * How long to wait before trying again after a failure: the delay doubles after every failed
+ * attempt, up to a maximum. It is jittered between half and all of that, so clients that failed
+ * together don't all come back at the same moment.
+ */
+public class BackoffPolicy {
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+
+    /**
+     * @param initialDelay the delay after the first failed attempt, in milliseconds.
+     * @param maxDelay     the longest delay, in milliseconds.
+     * @param maxAttempts  the number of attempts, including the first one.
+     */
+    public BackoffPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+        this(initialDelay, maxDelay, maxAttempts, new Random());
+    }
+
+    BackoffPolicy(long initialDelay, long maxDelay, int maxAttempts, Random random) {
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMaxAttempts = maxAttempts;
+        mRandom = random;
+    }
+
+    /**
+     * @param attempt the number of attempts that failed, 1 after the first.
+     * @return whether another attempt may be made.
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < mMaxAttempts;
+    }
+
+    /**
+     * @param attempt the number of attempts that failed, 1 after the first.
+     * @return the time to wait before the next attempt, in milliseconds.
+     */
+    public long getDelay(int attempt) {
+        long delay = mInitialDelay;
+        for (int i = 1; i < attempt && delay < mMaxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelay);
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
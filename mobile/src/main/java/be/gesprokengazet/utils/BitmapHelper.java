@@ -18,11 +18,11 @@ package be.gesprokengazet.utils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import be.gesprokengazet.ArtworkProvider;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 public class BitmapHelper {
     private static final String TAG = LogHelper.makeLogTag(BitmapHelper.class);
@@ -63,11 +63,10 @@ public class BitmapHelper {
     @SuppressWarnings("SameParameterValue")
     public static Bitmap fetchAndRescaleBitmap(String uri, int width, int height)
             throws IOException {
-        URL url = new URL(uri);
         BufferedInputStream is = null;
         try {
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            is = new BufferedInputStream(urlConnection.getInputStream());
+            is = new BufferedInputStream(ArtworkProvider.isArtworkUri(uri) ?
+                    ArtworkProvider.openStream(uri) : HttpHelper.openStream(uri));
             is.mark(MAX_READ_LIMIT_PER_IMG);
             int scaleFactor = findScaleFactor(width, height, is);
             LogHelper.d(TAG, "Scaling bitmap ", uri, " by factor ", scaleFactor, " to support ",
@@ -0,0 +1,106 @@
+package be.gesprokengazet.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to a host that is down, instead of having every request wait for a failure.
+ * After a number of failures in a row the breaker opens: requests are refused for a while. Then a
+ * single trial request is let through, if it succeeds the host is used again, otherwise the
+ * breaker stays open for longer.
+ * <p>
+ * Times are given by the caller, e.g. from {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final BackoffPolicy COOL_DOWN = new BackoffPolicy(
+            TimeUnit.SECONDS.toMillis(10), TimeUnit.MINUTES.toMillis(5), Integer.MAX_VALUE);
+
+    private static final ConcurrentMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<>();
+
+    private final BackoffPolicy mCoolDown;
+
+    // Guarded by this
+    private int mFailures; // In a row
+    private int mOpenings; // Without a success in between
+    private long mOpenUntil; // 0 when closed
+    private boolean mTrial;
+
+    /**
+     * @return the breaker of the given host, it is shared by the whole process.
+     */
+    public static CircuitBreaker forHost(String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            sBreakers.putIfAbsent(host, new CircuitBreaker(COOL_DOWN));
+            breaker = sBreakers.get(host);
+        }
+        return breaker;
+    }
+
+    /**
+     * Gives every host another chance, e.g. when the device got connected again.
+     */
+    public static void resetAll() {
+        for (CircuitBreaker breaker : sBreakers.values()) {
+            breaker.reset();
+        }
+    }
+
+    CircuitBreaker(BackoffPolicy coolDown) {
+        mCoolDown = coolDown;
+    }
+
+    /**
+     * @return whether a request may be made now. If so, its outcome must be reported with
+     * {@link #onSuccess()}, {@link #onFailure(long)} or {@link #onAbandoned()}.
+     */
+    public synchronized boolean allowRequest(long now) {
+        if (mOpenUntil == 0) {
+            return true;
+        }
+        if (now < mOpenUntil || mTrial) {
+            return false;
+        }
+        mTrial = true;
+        return true;
+    }
+
+    /**
+     * @return until when requests are refused, 0 when the breaker is closed. After that, a
+     * request is refused only while the trial request is underway.
+     */
+    public synchronized long getOpenUntil() {
+        return mOpenUntil;
+    }
+
+    public synchronized void onSuccess() {
+        reset();
+    }
+
+    public synchronized void onFailure(long now) {
+        mFailures++;
+        if (mTrial || mFailures >= FAILURE_THRESHOLD) {
+            mOpenings++;
+            mOpenUntil = now + mCoolDown.getDelay(mOpenings);
+            mFailures = 0;
+            mTrial = false;
+        }
+    }
+
+    /**
+     * Reports that a request was stopped before it had an outcome.
+     */
+    public synchronized void onAbandoned() {
+        mTrial = false;
+    }
+
+    private synchronized void reset() {
+        mFailures = 0;
+        mOpenings = 0;
+        mOpenUntil = 0;
+        mTrial = false;
+    }
+}
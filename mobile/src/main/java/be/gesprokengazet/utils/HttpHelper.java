@@ -0,0 +1,236 @@
+package be.gesprokengazet.utils;
+
+import android.content.Context;
+import android.net.http.HttpResponseCache;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The HTTP layer shared by everything that fetches from the network. Connections are kept alive
+ * and pooled by the platform, and responses are gzip-decoded transparently and cached according
+ * to their headers once {@link #install(Context)} was called.
+ */
+public class HttpHelper {
+    private static final String TAG = LogHelper.makeLogTag(HttpHelper.class);
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(15);
+
+    private static final BackoffPolicy BACKOFF = new BackoffPolicy(500, 4000, 3);
+
+    private static final String CACHE_DIRECTORY = "http";
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static final ConcurrentMap<String, HostStats> sStats = new ConcurrentHashMap<>();
+    private static final Executor sPreconnectExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Installs the response cache and configures the connection pool. Calling it again has no
+     * effect, so every entry point of the app can do so.
+     */
+    public static synchronized void install(Context context) {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        try {
+            HttpResponseCache.install(new File(context.getCacheDir(), CACHE_DIRECTORY), CACHE_SIZE);
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "HTTP response cache unavailable");
+        }
+    }
+
+    /**
+     * Fetches the given url. Connection failures and server errors are retried with an
+     * exponential backoff, so this must not be called from the UI thread. Hosts that keep failing
+     * are not contacted for a while, see {@link CircuitBreaker}.
+     *
+     * @return the body of the response, to be closed by the caller.
+     * @throws IOException when the last attempt failed, the host is considered down, or the
+     *                     server refused the request.
+     */
+    public static InputStream openStream(String url) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection connection = open(url);
+            String host = connection.getURL().getHost();
+            CircuitBreaker breaker = CircuitBreaker.forHost(host);
+            if (!breaker.allowRequest(SystemClock.elapsedRealtime())) {
+                throw new IOException(host + " is unavailable, not fetching " + url);
+            }
+            HostStats stats = statsFor(host);
+            long start = SystemClock.elapsedRealtime();
+            IOException failure;
+            boolean retry;
+            try {
+                int code = connection.getResponseCode();
+                stats.mLatency.addAndGet(SystemClock.elapsedRealtime() - start);
+                stats.mRequests.incrementAndGet();
+                if (code < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    breaker.onSuccess();
+                    return new MeasuredInputStream(connection.getInputStream(), stats);
+                }
+                failure = new IOException("HTTP " + code + " for " + url);
+                // Client errors won't go away by asking again.
+                retry = code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            } catch (IOException e) {
+                failure = e;
+                retry = true;
+            }
+            stats.mFailures.incrementAndGet();
+            connection.disconnect();
+            if (retry) {
+                breaker.onFailure(SystemClock.elapsedRealtime());
+            } else {
+                breaker.onSuccess(); // The host is up, it refused this request
+            }
+            if (!retry || !BACKOFF.canRetry(attempt)) {
+                throw failure;
+            }
+
+            LogHelper.w(TAG, "Attempt ", attempt, " for ", url, " failed: ", failure.getMessage());
+            try {
+                Thread.sleep(BACKOFF.getDelay(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while retrying " + url);
+            }
+        }
+    }
+
+    /**
+     * Warms up a connection to the host of the given url in the background: its name is resolved,
+     * and the connection is left in the pool for the next request to the same host.
+     */
+    public static void preconnect(final String url) {
+        sPreconnectExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = open(url);
+                    connection.setRequestMethod("HEAD");
+                    connection.getResponseCode();
+                    // Closing the (empty) body releases the connection into the pool.
+                    connection.getInputStream().close();
+                } catch (IOException e) {
+                    LogHelper.d(TAG, "Preconnect to ", url, " failed: ", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the statistics of all hosts that were contacted so far, by host name.
+     */
+    public static Map<String, HostStats> getStats() {
+        return Collections.unmodifiableMap(sStats);
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    private static HostStats statsFor(String host) {
+        HostStats stats = sStats.get(host);
+        if (stats == null) {
+            sStats.putIfAbsent(host, new HostStats());
+            stats = sStats.get(host);
+        }
+        return stats;
+    }
+
+    /**
+     * Traffic towards a single host.
+     */
+    public static final class HostStats {
+        private final AtomicLong mRequests = new AtomicLong();
+        private final AtomicLong mFailures = new AtomicLong();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final AtomicLong mLatency = new AtomicLong();
+
+        /**
+         * @return the number of requests that got a response, successful or not.
+         */
+        public long getRequests() {
+            return mRequests.get();
+        }
+
+        public long getFailures() {
+            return mFailures.get();
+        }
+
+        /**
+         * @return the number of (decoded) bytes that were read from response bodies.
+         */
+        public long getBytes() {
+            return mBytes.get();
+        }
+
+        /**
+         * @return the average time until the response headers arrived, in milliseconds.
+         */
+        public long getAverageLatency() {
+            long requests = mRequests.get();
+            return requests == 0 ? 0 : mLatency.get() / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + " failures=" + getFailures() +
+                    " bytes=" + getBytes() + " latency=" + getAverageLatency() + "ms";
+        }
+    }
+
+    private static final class MeasuredInputStream extends FilterInputStream {
+        private final HostStats mStats;
+
+        MeasuredInputStream(InputStream in, HostStats stats) {
+            super(in);
+            mStats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mStats.mBytes.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mStats.mBytes.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mStats.mBytes.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
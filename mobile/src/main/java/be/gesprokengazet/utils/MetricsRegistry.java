@@ -0,0 +1,233 @@
+package be.gesprokengazet.utils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process registry of counters, gauges and timers, so the effect of scheduling changes can be
+ * measured by tests and debug tools. Metrics are created on first use, and updating them doesn't
+ * lock or allocate. Two metrics can't report a value under the same name, see {@link #snapshot()}.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry sInstance = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> mTimers = new ConcurrentHashMap<>();
+    // The names in the snapshot of all metrics, guarded by this
+    private final Set<String> mKeys = new HashSet<>();
+
+    public static MetricsRegistry getInstance() {
+        return sInstance;
+    }
+
+    MetricsRegistry() {
+    }
+
+    /**
+     * @return the counter with the given name, created if needed.
+     * @throws IllegalArgumentException if another metric reports under the same name.
+     */
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            synchronized (this) {
+                counter = mCounters.get(name);
+                if (counter == null) {
+                    claim(name);
+                    counter = new Counter();
+                    mCounters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the gauge with the given name, created if needed.
+     * @throws IllegalArgumentException if another metric reports under the same names.
+     */
+    public Gauge gauge(String name) {
+        Gauge gauge = mGauges.get(name);
+        if (gauge == null) {
+            synchronized (this) {
+                gauge = mGauges.get(name);
+                if (gauge == null) {
+                    claim(name, name + ".max");
+                    gauge = new Gauge();
+                    mGauges.put(name, gauge);
+                }
+            }
+        }
+        return gauge;
+    }
+
+    /**
+     * @return the timer with the given name, created if needed.
+     * @throws IllegalArgumentException if another metric reports under the same names.
+     */
+    public Timer timer(String name) {
+        Timer timer = mTimers.get(name);
+        if (timer == null) {
+            synchronized (this) {
+                timer = mTimers.get(name);
+                if (timer == null) {
+                    claim(name + ".count", name + ".total", name + ".mean", name + ".max");
+                    timer = new Timer();
+                    mTimers.put(name, timer);
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Reserves the names a new metric reports its values under.
+     */
+    private void claim(String... keys) {
+        for (String key : keys) {
+            if (mKeys.contains(key)) {
+                throw new IllegalArgumentException("Another metric reports " + key + " already");
+            }
+        }
+        Collections.addAll(mKeys, keys);
+    }
+
+    /**
+     * @return the current value of every metric, sorted by name. A gauge also reports its
+     * highest value as "name.max", a timer reports "name.count", "name.total", "name.mean" and
+     * "name.max", in milliseconds. Creating a metric that would report under a name that is in
+     * use already fails, so no value hides another one.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+            values.put(entry.getKey() + ".max", entry.getValue().getMax());
+        }
+        for (Map.Entry<String, Timer> entry : mTimers.entrySet()) {
+            Timer timer = entry.getValue();
+            values.put(entry.getKey() + ".count", timer.getCount());
+            values.put(entry.getKey() + ".total", timer.getTotal());
+            values.put(entry.getKey() + ".mean", timer.getMean());
+            values.put(entry.getKey() + ".max", timer.getMax());
+        }
+        return values;
+    }
+
+    /**
+     * Forgets all values, e.g. between measurements.
+     */
+    public void reset() {
+        for (Counter counter : mCounters.values()) {
+            counter.mValue.set(0);
+        }
+        for (Gauge gauge : mGauges.values()) {
+            gauge.mMax.set(gauge.mValue.get());
+        }
+        for (Timer timer : mTimers.values()) {
+            timer.mCount.set(0);
+            timer.mTotal.set(0);
+            timer.mMax.set(0);
+        }
+    }
+
+    /**
+     * A number of events, that only goes up.
+     */
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            mValue.addAndGet(amount);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * A level that goes up and down, like the length of a queue. Its highest value is kept as
+     * well.
+     */
+    public static final class Gauge {
+        private final AtomicLong mValue = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void add(long delta) {
+            updateMax(mValue.addAndGet(delta));
+        }
+
+        public void set(long value) {
+            mValue.set(value);
+            updateMax(value);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        private void updateMax(long value) {
+            for (long max = mMax.get(); value > max; max = mMax.get()) {
+                if (mMax.compareAndSet(max, value)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Durations of a recurring operation, in milliseconds.
+     */
+    public static final class Timer {
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long duration) {
+            mCount.incrementAndGet();
+            mTotal.addAndGet(duration);
+            for (long max = mMax.get(); duration > max; max = mMax.get()) {
+                if (mMax.compareAndSet(max, duration)) {
+                    return;
+                }
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getTotal() {
+            return mTotal.get();
+        }
+
+        public long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotal.get() / count;
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+    }
+}
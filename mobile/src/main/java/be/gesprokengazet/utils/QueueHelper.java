@@ -69,7 +69,17 @@ public class QueueHelper {
             return null;
         }
 
-        return convertToQueue(tracks, hierarchy[0], hierarchy[1]);
+        // Tracks that were heard already are left out, unless it is the one that was chosen.
+        String chosenMusicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+        List<MediaMetadataCompat> unheard = new ArrayList<>();
+        for (MediaMetadataCompat track : tracks) {
+            String musicId = track.getDescription().getMediaId();
+            if (!musicProvider.isPlayed(musicId) || TextUtils.equals(musicId, chosenMusicId)) {
+                unheard.add(track);
+            }
+        }
+
+        return convertToQueue(unheard, hierarchy[0], hierarchy[1]);
     }
 
     public static List<MediaSessionCompat.QueueItem> getPlayingQueueFromSearch(String query,
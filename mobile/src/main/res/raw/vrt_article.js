@@ -1,3 +1,4 @@
+var items = [];
 document.querySelectorAll('h1, h2, h3, h4, h5, p, li').forEach(function(el) {
     var p1 = el.parentNode;
     var p2 = p1.parentNode;
@@ -5,8 +6,8 @@ document.querySelectorAll('h1, h2, h3, h4, h5, p, li').forEach(function(el) {
         p1.className.indexOf('article__intro') != -1 || p2.className.indexOf('article__intro') != -1 ||
         p1.className.indexOf('parbase') != -1 || p2.className.indexOf('parbase') != -1) {
         if (el.innerHTML.indexOf('Lees verder onder') == -1) {
-          window.ContentScraper.content(el.innerHTML, "");
+          items.push(el.innerHTML, '');
         }
     }
 } );
-window.ContentScraper.finished();
\ No newline at end of file
+window.ContentScraper.deliver(JSON.stringify(items));
\ No newline at end of file
@@ -3,8 +3,9 @@ function findAncestor(el, cls) {
   return el;
 }
 
+var items = [];
 document.querySelectorAll('h2.vrt-teaser__title').forEach(function(el) {
-  window.ContentScraper.content(el.innerHTML, findAncestor(el, 'vrt-teaser').href);
+  items.push(el.innerHTML, findAncestor(el, 'vrt-teaser').href);
 });
 
-window.ContentScraper.finished();
\ No newline at end of file
+window.ContentScraper.deliver(JSON.stringify(items));
\ No newline at end of file
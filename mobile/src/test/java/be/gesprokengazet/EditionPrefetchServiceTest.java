@@ -0,0 +1,111 @@
+package be.gesprokengazet;
+
+import be.gesprokengazet.news.Article;
+import be.gesprokengazet.news.ArticleText;
+import be.gesprokengazet.news.EditionFile;
+import be.gesprokengazet.news.TableOfContents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the edition that {@link EditionPrefetchService} writes.
+ */
+@RunWith(JUnit4.class)
+public class EditionPrefetchServiceTest {
+
+    private final TableOfContents mToc = new TableOfContents("https://news");
+    private final List<Article> mArticles = new ArrayList<>();
+    private File mFile;
+
+    @Before
+    public void createEdition() throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            String url = "https://news/" + i;
+            content.put("Artikel " + i, url);
+            Article article = new Article(url);
+            article.setText(ArticleText.of(Arrays.asList("Titel " + i, "Paragraaf " + i)));
+            mArticles.add(article);
+        }
+        mToc.setContent(content);
+        mFile = File.createTempFile("edition", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Test
+    public void testAllArticles() throws Exception {
+        EditionFile edition = write(EditionPrefetchService.createEntries(mToc, mArticles));
+        try {
+            assertEquals(3, edition.getArticleCount());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("https://news/" + (i + 1), edition.getUrl(i));
+                assertEquals("Artikel " + (i + 1), edition.getTitle(i));
+                assertEquals("Titel " + (i + 1), edition.getParagraph(i, 0));
+            }
+        } finally {
+            edition.close();
+        }
+    }
+
+    @Test
+    public void testArticleWithoutContentInTheMiddle() throws Exception {
+        mArticles.get(1).setText(ArticleText.EMPTY);
+
+        EditionFile edition = write(EditionPrefetchService.createEntries(mToc, mArticles));
+        try {
+            // It is listed, so it can still be downloaded on demand
+            assertEquals(3, edition.getArticleCount());
+            assertEquals("https://news/2", edition.getUrl(1));
+            assertEquals("Artikel 2", edition.getTitle(1));
+            assertEquals(0, edition.getParagraphCount(1));
+            assertEquals("https://news/3", edition.getUrl(2));
+            assertEquals("Artikel 3", edition.getTitle(2));
+            assertEquals("Paragraaf 3", edition.getParagraph(2, 1));
+        } finally {
+            edition.close();
+        }
+    }
+
+    @Test
+    public void testPlayedArticles() throws Exception {
+        // Played articles aren't downloaded, but may still have content from an earlier edition
+        mArticles.get(0).setText(ArticleText.EMPTY);
+        mArticles.get(1).setText(ArticleText.of(Arrays.asList("Oud")));
+
+        EditionFile edition = write(EditionPrefetchService.createEntries(mToc, mArticles));
+        try {
+            // They are listed, so they can be listened to again
+            assertEquals(3, edition.getArticleCount());
+            assertEquals("https://news/1", edition.getUrl(0));
+            assertEquals("Artikel 1", edition.getTitle(0));
+            assertEquals(0, edition.getParagraphCount(0));
+            assertEquals("Oud", edition.getParagraph(1, 0));
+            assertEquals("Titel 3", edition.getParagraph(2, 0));
+        } finally {
+            edition.close();
+        }
+    }
+
+    private EditionFile write(List<EditionFile.Entry> entries) throws Exception {
+        EditionFile.write(mFile, mToc.getUrl(), 1234L, entries);
+        return EditionFile.open(mFile);
+    }
+}
@@ -0,0 +1,118 @@
+package be.gesprokengazet;
+
+import android.support.v4.media.MediaBrowserCompat.MediaItem;
+import android.support.v4.media.MediaBrowserServiceCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import be.gesprokengazet.model.MusicProviderSource;
+import be.gesprokengazet.utils.MetricsRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_ROOT;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Measures the cold start of the {@link MusicService}: from onCreate until a browser gets the
+ * first children of the root. The news site is replaced by a fixed catalog, so only the work of
+ * the service itself is measured.
+ * <p>
+ * Fails when the median startup exceeds the budget in the "benchmark.startupBudgetMs" system
+ * property.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 26)
+public class MusicServiceStartupBenchmark {
+
+    private static final int WARM_UP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    @Test
+    public void testStartup() throws Exception {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            start();
+        }
+        long[] durations = new long[MEASURED_RUNS];
+        Map<String, Long> phases = null;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            phases = start();
+            durations[i] = phases.get("startup.firstChildren.total");
+        }
+        Arrays.sort(durations);
+        long median = durations[MEASURED_RUNS / 2];
+
+        // The phases of the last run tell where the time went
+        StringBuilder timings = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (phase.getKey().startsWith("startup.") && phase.getKey().endsWith(".total")) {
+                timings.append(", ").append(phase.getKey()).append(": ")
+                        .append(phase.getValue()).append(" ms");
+            }
+        }
+
+        long budget = Long.getLong("benchmark.startupBudgetMs", 1500);
+        assertTrue("Median startup of " + MEASURED_RUNS + " runs took " + median
+                + " ms, the budget is " + budget + " ms" + timings, median <= budget);
+    }
+
+    /**
+     * Starts the service, loads the root and stops the service again.
+     *
+     * @return the metrics of this start.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> start() {
+        MetricsRegistry.getInstance().reset();
+        ServiceController<BenchmarkService> controller =
+                Robolectric.buildService(BenchmarkService.class);
+        BenchmarkService service = controller.create().get();
+
+        MediaBrowserServiceCompat.Result<List<MediaItem>> result =
+                mock(MediaBrowserServiceCompat.Result.class);
+        service.onLoadChildren(MEDIA_ID_ROOT, result);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(result).sendResult(anyListOf(MediaItem.class));
+
+        Map<String, Long> metrics = MetricsRegistry.getInstance().snapshot();
+        controller.destroy();
+        return metrics;
+    }
+
+    public static class BenchmarkService extends MusicService {
+        @Override
+        MusicProviderSource getCatalogSource() {
+            return new MusicProviderSource() {
+                @Override
+                public void retrieve(Listener listener) {
+                    List<MediaMetadataCompat> items = new ArrayList<>();
+                    for (int i = 1; i <= 20; i++) {
+                        items.add(new MediaMetadataCompat.Builder()
+                                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
+                                        "https://example.com/article" + i)
+                                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE,
+                                        "https://example.com/article" + i)
+                                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, "Article " + i)
+                                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, "News")
+                                .build());
+                    }
+                    listener.onItems(items);
+                    listener.onComplete();
+                }
+            };
+        }
+    }
+}
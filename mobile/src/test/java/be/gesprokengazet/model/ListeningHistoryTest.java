@@ -0,0 +1,134 @@
+package be.gesprokengazet.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link ListeningHistory} class.
+ */
+@RunWith(JUnit4.class)
+public class ListeningHistoryTest {
+
+    private static final String ARTICLE = "https://example.com/article";
+    private static final String OTHER_ARTICLE = "https://example.com/other";
+
+    // Writes right away, so the log can be read again within the test
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), "history.log");
+    }
+
+    @Test
+    public void testRestored() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setResumePoint(ARTICLE, 3);
+        history.setResumePoint(ARTICLE, 7);
+        history.setPlayed(OTHER_ARTICLE);
+        history.setFavorite(OTHER_ARTICLE, true);
+
+        ListeningHistory restored = new ListeningHistory(mFile, DIRECT);
+        assertEquals(7, restored.getResumePoint(ARTICLE));
+        assertFalse(restored.isPlayed(ARTICLE));
+        assertTrue(restored.isPlayed(OTHER_ARTICLE));
+        assertEquals(0, restored.getResumePoint(OTHER_ARTICLE));
+        assertEquals(Collections.singleton(OTHER_ARTICLE), restored.getFavorites());
+    }
+
+    @Test
+    public void testPlayedAgain() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setPlayed(ARTICLE);
+        history.setResumePoint(ARTICLE, 2);
+
+        assertFalse(history.isPlayed(ARTICLE));
+        assertEquals(2, history.getResumePoint(ARTICLE));
+    }
+
+    @Test
+    public void testCompacted() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setFavorite(OTHER_ARTICLE, true);
+        for (int i = 1; i <= 1000; i++) {
+            history.setResumePoint(ARTICLE, i);
+        }
+        history.flush();
+        // Far less than a line per change
+        assertTrue(mFile.length() < 300 * 64);
+
+        ListeningHistory restored = new ListeningHistory(mFile, DIRECT);
+        assertEquals(1000, restored.getResumePoint(ARTICLE));
+        assertTrue(restored.isFavorite(OTHER_ARTICLE));
+    }
+
+    @Test
+    public void testResumePointsCoalesced() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setResumePoint(ARTICLE, 1);
+        history.setResumePoint(ARTICLE, 2);
+        history.setResumePoint(ARTICLE, 3);
+        assertEquals(3, history.getResumePoint(ARTICLE));
+        // Only the first one was written right away
+        assertEquals(1, new ListeningHistory(mFile, DIRECT).getResumePoint(ARTICLE));
+
+        history.flush();
+        assertEquals(3, new ListeningHistory(mFile, DIRECT).getResumePoint(ARTICLE));
+    }
+
+    @Test
+    public void testResumePointWrittenOnOtherTrack() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setResumePoint(ARTICLE, 1);
+        history.setResumePoint(ARTICLE, 5);
+        history.setResumePoint(OTHER_ARTICLE, 2);
+
+        assertEquals(5, new ListeningHistory(mFile, DIRECT).getResumePoint(ARTICLE));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        ListeningHistory history = new ListeningHistory(mFile, DIRECT);
+        history.setResumePoint(ARTICLE, 4);
+        // The process died while appending
+        append("\nR\t12");
+
+        ListeningHistory restored = new ListeningHistory(mFile, DIRECT);
+        assertEquals(4, restored.getResumePoint(ARTICLE));
+        restored.setPlayed(OTHER_ARTICLE);
+        assertTrue(new ListeningHistory(mFile, DIRECT).isPlayed(OTHER_ARTICLE));
+    }
+
+    private void append(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
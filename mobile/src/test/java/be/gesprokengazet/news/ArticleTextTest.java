@@ -0,0 +1,74 @@
+package be.gesprokengazet.news;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link ArticleText} class.
+ */
+@RunWith(JUnit4.class)
+public class ArticleTextTest {
+
+    @Test
+    public void testOffsets() throws Exception {
+        ArticleText text = ArticleText.of(Arrays.asList("Title", "", "Intro.", "Body."));
+
+        assertEquals(4, text.size());
+        assertEquals(0, text.getOffset(0));
+        assertEquals(5, text.getOffset(1));
+        assertEquals(5, text.getOffset(2));
+        assertEquals(11, text.getOffset(3));
+        assertEquals(16, text.getLength());
+    }
+
+    @Test
+    public void testIndexAt() throws Exception {
+        ArticleText text = ArticleText.of(Arrays.asList("Title", "", "Intro.", "Body."));
+
+        assertEquals(0, text.indexAt(0));
+        assertEquals(0, text.indexAt(4));
+        assertEquals(2, text.indexAt(5));
+        assertEquals(2, text.indexAt(10));
+        assertEquals(3, text.indexAt(11));
+        assertEquals(3, text.indexAt(15));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexAtEnd() throws Exception {
+        ArticleText.of(Arrays.asList("Title")).indexAt(5);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() throws Exception {
+        ArticleText.of(Arrays.asList("Title")).set(0, "Other");
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertSame(ArticleText.EMPTY, ArticleText.of(Collections.<String>emptyList()));
+        assertEquals(0, ArticleText.EMPTY.getLength());
+    }
+
+    @Test
+    public void testArticleKeepsRepeatedParagraphs() throws Exception {
+        Article article = new Article("http://example.com/article");
+        assertFalse(article.hasContent());
+
+        article.setScraped(Arrays.asList("Title", "Lees ook", "Body.", "Lees ook"),
+                Arrays.asList("", "", "", ""));
+
+        assertTrue(article.hasContent());
+        assertEquals(Arrays.asList("Title", "Lees ook", "Body.", "Lees ook"), article.getText());
+        assertSame(article.getText(), article.getText());
+        assertEquals(26, article.getContentLength());
+    }
+}
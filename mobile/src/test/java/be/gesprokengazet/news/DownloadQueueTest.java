@@ -0,0 +1,91 @@
+package be.gesprokengazet.news;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link DownloadQueue} class.
+ */
+@RunWith(JUnit4.class)
+public class DownloadQueueTest {
+
+    private final DownloadQueue<Article> mQueue = new DownloadQueue<>();
+    private final Article mFirst = new Article("https://example.com/1");
+    private final Article mSecond = new Article("https://example.com/2");
+    private final Article mThird = new Article("https://example.com/3");
+
+    private final WebResourceCompleted<Article> mCallback = new WebResourceCompleted<Article>() {
+        @Override
+        public void onSuccess(Article resource) {
+        }
+
+        @Override
+        public void onError(Article resource, String message) {
+        }
+    };
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        mQueue.add(mFirst, Priority.PREFETCH, mCallback);
+        mQueue.add(mSecond, Priority.NEXT, mCallback);
+        mQueue.add(mThird, Priority.PREFETCH, mCallback);
+
+        assertSame(mSecond, mQueue.poll().mResource);
+        // Scheduled first among the prefetches
+        assertSame(mFirst, mQueue.poll().mResource);
+        assertSame(mThird, mQueue.poll().mResource);
+        assertNull(mQueue.poll());
+        assertTrue(mQueue.isEmpty());
+    }
+
+    @Test
+    public void testPromoted() throws Exception {
+        assertTrue(mQueue.add(mFirst, Priority.NEXT, mCallback));
+        mQueue.add(mSecond, Priority.PREFETCH, mCallback);
+        assertFalse(mQueue.add(mSecond, Priority.INTERACTIVE, mCallback));
+        // A lower priority doesn't demote it
+        mQueue.add(mSecond, Priority.REFRESH, mCallback);
+
+        DownloadQueue.Entry<Article> entry = mQueue.poll();
+        assertSame(mSecond, entry.mResource);
+        assertEquals(Priority.INTERACTIVE, entry.getPriority());
+        assertEquals(3, entry.mCallbacks.size());
+    }
+
+    @Test
+    public void testRequeue() throws Exception {
+        mQueue.add(mFirst, Priority.PREFETCH, mCallback);
+        mQueue.add(mSecond, Priority.PREFETCH, mCallback);
+        DownloadQueue.Entry<Article> first = mQueue.poll();
+
+        // Interrupted for a more urgent one, and scheduled again meanwhile
+        mQueue.add(mThird, Priority.INTERACTIVE, mCallback);
+        mQueue.add(mFirst, Priority.NEXT, mCallback);
+        mQueue.requeue(first);
+
+        assertSame(mThird, mQueue.poll().mResource);
+        DownloadQueue.Entry<Article> requeued = mQueue.poll();
+        assertSame(first, requeued);
+        assertEquals(Priority.NEXT, requeued.getPriority());
+        assertEquals(2, requeued.mCallbacks.size());
+        assertSame(mSecond, mQueue.poll().mResource);
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        mQueue.add(mFirst, Priority.NEXT, mCallback);
+        mQueue.add(mSecond, Priority.NEXT, mCallback);
+
+        assertSame(mFirst, mQueue.remove(mFirst).mResource);
+        assertNull(mQueue.remove(mFirst));
+        assertSame(mSecond, mQueue.poll().mResource);
+        assertNull(mQueue.poll());
+    }
+}
@@ -0,0 +1,109 @@
+package be.gesprokengazet.news;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link EditionFile} class. Writes editions and reads them back.
+ */
+@RunWith(JUnit4.class)
+public class EditionFileTest {
+
+    private File mFile;
+
+    @Before
+    public void createFile() throws Exception {
+        mFile = File.createTempFile("edition", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        List<EditionFile.Entry> entries = Arrays.asList(
+                new EditionFile.Entry("https://news/1", "Eerste artikel",
+                        Arrays.asList("Titel", "Een paragraaf met één accent."), null),
+                new EditionFile.Entry("https://news/2", "Tweede artikel",
+                        Collections.singletonList("Enkel €"), new byte[]{1, 2, 3}));
+        EditionFile.write(mFile, "https://news", 1234L, entries);
+
+        EditionFile edition = EditionFile.open(mFile);
+        try {
+            assertEquals(1234L, edition.getCreatedAt());
+            assertEquals("https://news", edition.getTableOfContentsUrl());
+            assertEquals(2, edition.getArticleCount());
+
+            assertEquals("Tweede artikel", edition.getTitle(1));
+            assertEquals("Enkel €", edition.getParagraph(1, 0));
+            ByteBuffer thumbnail = edition.getThumbnail(1);
+            assertEquals(3, thumbnail.remaining());
+            assertEquals(2, thumbnail.get(1));
+
+            assertEquals("https://news/1", edition.getUrl(0));
+            assertEquals(2, edition.getParagraphCount(0));
+            assertEquals(Arrays.asList("Titel", "Een paragraaf met één accent."),
+                    edition.getParagraphs(0));
+            assertNull(edition.getThumbnail(0));
+        } finally {
+            edition.close();
+        }
+    }
+
+    @Test
+    public void testIndexOf() throws Exception {
+        EditionFile.write(mFile, "https://news", 0L, Arrays.asList(
+                new EditionFile.Entry("https://news/1", "1", Collections.<String>emptyList(), null),
+                new EditionFile.Entry("https://news/2", "2", Collections.<String>emptyList(), null)));
+
+        EditionFile edition = EditionFile.open(mFile);
+        try {
+            assertEquals(1, edition.indexOf("https://news/2"));
+            assertEquals(-1, edition.indexOf("https://news/3"));
+            assertEquals(0, edition.getParagraphCount(0));
+        } finally {
+            edition.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testParagraphOutOfBounds() throws Exception {
+        EditionFile.write(mFile, "https://news", 0L, Collections.singletonList(
+                new EditionFile.Entry("https://news/1", "1", Collections.singletonList("a"), null)));
+
+        EditionFile edition = EditionFile.open(mFile);
+        try {
+            edition.getParagraph(0, 1);
+        } finally {
+            edition.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        EditionFile.open(mFile);
+    }
+}
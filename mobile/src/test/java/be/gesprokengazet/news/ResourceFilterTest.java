@@ -0,0 +1,56 @@
+package be.gesprokengazet.news;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the {@link ResourceFilter} class.
+ */
+@RunWith(JUnit4.class)
+public class ResourceFilterTest {
+
+    private final ResourceFilter mFilter = new ResourceFilter(
+            Collections.singletonList("^https://embed\\.example\\.com/"),
+            Collections.singletonList("^https?://[^/]*analytics\\."));
+
+    @Test
+    public void testPageAndScripts() throws Exception {
+        assertNull(mFilter.check("https://example.com/news.css", true, null));
+        assertNull(mFilter.check("https://example.com/app.js", false, accept("*/*")));
+        assertNull(mFilter.check("https://example.com/api/articles", false, null));
+    }
+
+    @Test
+    public void testLooks() throws Exception {
+        assertEquals(ResourceFilter.STYLESHEET,
+                mFilter.check("https://example.com/news.CSS?v=3", false, null));
+        assertEquals(ResourceFilter.STYLESHEET,
+                mFilter.check("https://example.com/styles", false, accept("text/css,*/*;q=0.1")));
+        assertEquals(ResourceFilter.FONT,
+                mFilter.check("https://example.com/fonts/sans.woff2#x", false, null));
+        assertEquals(ResourceFilter.IMAGE,
+                mFilter.check("https://example.com/thumb", false, accept("image/webp,*/*")));
+        assertEquals(ResourceFilter.MEDIA,
+                mFilter.check("https://example.com/clip.m3u8", false, null));
+        assertEquals(ResourceFilter.FRAME,
+                mFilter.check("https://ads.example.net/slot", false, accept("text/html")));
+    }
+
+    @Test
+    public void testRules() throws Exception {
+        assertEquals(ResourceFilter.DENIED,
+                mFilter.check("https://www.analytics.example.org/track.js", false, null));
+        assertNull(mFilter.check("https://embed.example.com/video", false, accept("text/html")));
+    }
+
+    private static Map<String, String> accept(String value) {
+        return Collections.singletonMap("Accept", value);
+    }
+}
@@ -0,0 +1,112 @@
+package be.gesprokengazet.playback;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the {@link ConcatenatedWav} class.
+ */
+@RunWith(JUnit4.class)
+public class ConcatenatedWavTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testConcatenate() throws Exception {
+        File first = write("first.wav", SAMPLE_RATE, new byte[]{1, 2, 3, 4}, false, false);
+        // A chunk before the samples, and a size left open like streaming encoders do
+        File second = write("second.wav", SAMPLE_RATE, new byte[]{5, 6}, true, true);
+        ConcatenatedWav wav = ConcatenatedWav.create(Arrays.asList(first, second));
+
+        assertEquals(44 + 6, wav.getLength());
+        byte[] stream = transfer(wav, 0, wav.getLength());
+        ByteBuffer header = ByteBuffer.wrap(stream).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("RIFF", new String(stream, 0, 4, "US-ASCII"));
+        assertEquals(36 + 6, header.getInt(4));
+        assertEquals(SAMPLE_RATE, header.getInt(24));
+        assertEquals(6, header.getInt(40));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, Arrays.copyOfRange(stream, 44, 50));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        File first = write("first.wav", SAMPLE_RATE, new byte[]{1, 2, 3, 4}, false, false);
+        File second = write("second.wav", SAMPLE_RATE, new byte[]{5, 6, 7, 8}, false, false);
+        ConcatenatedWav wav = ConcatenatedWav.create(Arrays.asList(first, second));
+
+        assertArrayEquals(new byte[]{3, 4, 5}, transfer(wav, 46, 3));
+        byte[] acrossHeader = transfer(wav, 42, 4);
+        assertArrayEquals(new byte[]{1, 2}, Arrays.copyOfRange(acrossHeader, 2, 4));
+    }
+
+    @Test
+    public void testDuration() throws Exception {
+        // 16 bit mono, so a second of audio is twice the sample rate in bytes
+        File second = write("second.wav", SAMPLE_RATE, new byte[SAMPLE_RATE * 2], false, false);
+        assertEquals(1000, ConcatenatedWav.create(Collections.singletonList(second)).getDuration());
+    }
+
+    @Test
+    public void testDifferentFormats() throws Exception {
+        File first = write("first.wav", SAMPLE_RATE, new byte[]{1, 2}, false, false);
+        File second = write("second.wav", 22050, new byte[]{3, 4}, false, false);
+        try {
+            ConcatenatedWav.create(Arrays.asList(first, second));
+            fail("Formats can't be mixed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] transfer(ConcatenatedWav wav, long position, long count)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        wav.transferTo(position, count, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a 16 bit mono PCM file.
+     */
+    private File write(String name, int sampleRate, byte[] samples, boolean extraChunk,
+                       boolean openSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 + samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes("US-ASCII")).putInt(0).put("WAVE".getBytes("US-ASCII"));
+        buffer.put("fmt ".getBytes("US-ASCII")).putInt(16)
+                .putShort((short) 1).putShort((short) 1).putInt(sampleRate)
+                .putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16);
+        if (extraChunk) {
+            buffer.put("LIST".getBytes("US-ASCII")).putInt(3).put(new byte[]{'a', 'b', 'c', 0});
+        }
+        buffer.put("data".getBytes("US-ASCII")).putInt(openSize ? 0 : samples.length).put(samples);
+
+        File file = mFolder.newFile(name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,82 @@
+package be.gesprokengazet.playback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link SpeechScript} and {@link DutchText} classes.
+ */
+@RunWith(JUnit4.class)
+public class SpeechScriptTest {
+
+    private static final Locale DUTCH = new Locale("nl", "BE");
+
+    @Test
+    public void testSplitSentences() throws Exception {
+        assertEquals(Arrays.asList(
+                "Volgens dhr. J. Peeters is dat o.a. te duur.",
+                "\"Echt?\"",
+                "Het kost 3,5 miljoen... of meer."),
+                DutchText.splitSentences("Volgens dhr. J. Peeters is dat o.a. te duur. " +
+                        "\"Echt?\" Het kost 3,5 miljoen... of meer."));
+    }
+
+    @Test
+    public void testNormalize() throws Exception {
+        assertEquals("Op twaalf maart tweeduizend zeventien om veertien uur dertig.",
+                DutchText.normalize("Op 12/03/2017 om 14u30."));
+        assertEquals("Dat is drie komma twee procent meer dan in negentienhonderdvijfentachtig.",
+                DutchText.normalize("Dat is 3,2% meer dan in 1985."));
+        assertEquals("Het kost duizend tweehonderdvijftig euro, bijvoorbeeld per jaar.",
+                DutchText.normalize("Het kost € 1.250, bv. per jaar."));
+        assertEquals("In elfhonderd en duizend honderd komma vijf.",
+                DutchText.normalize("In 1100 en 1.100,5."));
+        assertEquals("Het eenentwintigste congres.", DutchText.normalize("Het 21ste congres."));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        assertEquals("drieëntwintig", DutchText.cardinal(23));
+        assertEquals("honderdeen", DutchText.cardinal(101));
+        assertEquals("duizend tweehonderdvijftig", DutchText.cardinal(1250));
+        assertEquals("twee miljoen vijfhonderdduizend", DutchText.cardinal(2500000));
+        assertEquals("derde", DutchText.ordinal(3));
+        assertEquals("twintigste", DutchText.ordinal(20));
+        assertEquals("honderdeerste", DutchText.ordinal(101));
+        assertEquals("negentienhonderd", DutchText.year(1900));
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        SpeechScript script = SpeechScript.create(
+                Arrays.asList("Titel", "Een zin. Nog een zin."), DUTCH, 1000);
+        assertEquals(Arrays.asList("Titel", "Een zin.", "Nog een zin."), script.getUtterances());
+        assertEquals(2, SpeechScript.getIndex(SpeechScript.getUtteranceId(2)));
+        assertEquals(-1, SpeechScript.getIndex("endingPause"));
+    }
+
+    @Test
+    public void testLongSentenceIsSplit() throws Exception {
+        SpeechScript script = SpeechScript.create(Collections.singletonList(
+                "Een, twee, drie, vier, vijf, zes, zeven acht negen tien elf twaalf."), DUTCH, 20);
+        for (String utterance : script.getUtterances()) {
+            assertTrue(utterance, utterance.length() <= 20);
+        }
+        assertEquals("Een, twee, drie,", script.get(0));
+    }
+
+    @Test
+    public void testOtherLanguageIsNotNormalized() throws Exception {
+        SpeechScript script = SpeechScript.create(
+                Collections.singletonList("It costs 5 euro. Really."), Locale.UK, 1000);
+        assertEquals(Arrays.asList("It costs 5 euro.", "Really."), script.getUtterances());
+    }
+}
@@ -0,0 +1,131 @@
+package be.gesprokengazet.playback;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.speech.tts.TextToSpeech;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat.QueueItem;
+
+import be.gesprokengazet.BuildConfig;
+import be.gesprokengazet.model.MusicProvider;
+import be.gesprokengazet.model.MusicProviderSource;
+import be.gesprokengazet.news.Article;
+import be.gesprokengazet.news.ArticleText;
+import be.gesprokengazet.news.DownloadManager;
+import be.gesprokengazet.news.EditionStore;
+import be.gesprokengazet.news.NewsSiteConfiguration;
+import be.gesprokengazet.news.WebResourceCompleted;
+import be.gesprokengazet.utils.MediaIDHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import static be.gesprokengazet.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the {@link TextToSpeechPlayback} class. Checks what is queued on the engine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 26)
+public class TextToSpeechPlaybackTest {
+
+    private final TextToSpeech mTextToSpeech = mock(TextToSpeech.class);
+    private final MusicProvider mMusicProvider = mock(MusicProvider.class);
+    private final QueueManager mQueueManager = mock(QueueManager.class);
+    private final SpeechEngine mSpeechEngine = mock(SpeechEngine.class);
+    @SuppressWarnings("unchecked")
+    private final DownloadManager<Article> mDownloadManager = mock(DownloadManager.class);
+    private TextToSpeechPlayback mPlayback;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setupPlayback() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        NewsSiteConfiguration config = mock(NewsSiteConfiguration.class);
+        when(config.getLocale()).thenReturn(new Locale("nl", "BE"));
+        when(mSpeechEngine.getTextToSpeech()).thenReturn(mTextToSpeech);
+        // The engine is ready, and the articles are downloaded already
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((SpeechEngine.Callback) invocation.getArguments()[0]).onReady(mTextToSpeech);
+                return null;
+            }
+        }).when(mSpeechEngine).whenReady(any(SpeechEngine.Callback.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((WebResourceCompleted<Article>) invocation.getArguments()[1])
+                        .onSuccess((Article) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(mDownloadManager).scheduleForDownload(any(Article.class),
+                any(WebResourceCompleted.class));
+
+        addArticle("1", "Eerste artikel.");
+        addArticle("2", "Tweede artikel.");
+        when(mQueueManager.peekQueuePosition(1)).thenReturn(queueItem("2"));
+
+        mPlayback = new TextToSpeechPlayback(context, mMusicProvider, config, mSpeechEngine,
+                mDownloadManager, mQueueManager);
+    }
+
+    @Test
+    public void testCueBetweenPauseAndNextArticle() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString("transitionPause", "500")
+                .putBoolean("transitionCue", true)
+                .apply();
+
+        mPlayback.play(queueItem("1"));
+
+        // The current article is the first generation, the one queued behind it the second
+        InOrder order = inOrder(mTextToSpeech);
+        order.verify(mTextToSpeech).speak(anyString(), eq(TextToSpeech.QUEUE_ADD),
+                any(Bundle.class), eq("1:" + SpeechScript.getUtteranceId(0)));
+        order.verify(mTextToSpeech).playSilentUtterance(eq(500L), eq(TextToSpeech.QUEUE_ADD),
+                eq("2:pause"));
+        order.verify(mTextToSpeech).playEarcon(anyString(), eq(TextToSpeech.QUEUE_ADD),
+                any(Bundle.class), eq("2:cue"));
+        order.verify(mTextToSpeech).speak(anyString(), eq(TextToSpeech.QUEUE_ADD),
+                any(Bundle.class), eq("2:" + SpeechScript.getUtteranceId(0)));
+    }
+
+    private void addArticle(String musicId, String text) {
+        String url = "https://example.com/" + musicId;
+        EditionStore.getInstance().getArticle(url)
+                .setText(ArticleText.of(Collections.singletonList(text)));
+        when(mMusicProvider.getMusic(musicId)).thenReturn(new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, musicId)
+                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, "News")
+                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, url)
+                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_LANGUAGE, "nl")
+                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_COUNTRY, "BE")
+                .build());
+    }
+
+    private static QueueItem queueItem(String musicId) {
+        String mediaId = MediaIDHelper.createMediaID(musicId, MEDIA_ID_MUSICS_BY_GENRE, "News");
+        return new QueueItem(new MediaDescriptionCompat.Builder().setMediaId(mediaId).build(),
+                Long.parseLong(musicId));
+    }
+}
@@ -0,0 +1,48 @@
+package be.gesprokengazet.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link BackoffPolicy} class.
+ */
+@RunWith(JUnit4.class)
+public class BackoffPolicyTest {
+
+    private final BackoffPolicy mPolicy = new BackoffPolicy(1000, 5000, 3, new Random(42));
+
+    @Test
+    public void testCanRetry() throws Exception {
+        assertTrue(mPolicy.canRetry(1));
+        assertTrue(mPolicy.canRetry(2));
+        assertFalse(mPolicy.canRetry(3));
+    }
+
+    @Test
+    public void testDelayDoubles() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500, 1000, mPolicy.getDelay(1));
+            assertBetween(1000, 2000, mPolicy.getDelay(2));
+            assertBetween(2000, 4000, mPolicy.getDelay(3));
+        }
+    }
+
+    @Test
+    public void testDelayIsCapped() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(2500, 5000, mPolicy.getDelay(4));
+            assertBetween(2500, 5000, mPolicy.getDelay(Integer.MAX_VALUE));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long delay) {
+        assertTrue(delay + " < " + min, delay >= min);
+        assertTrue(delay + " > " + max, delay <= max);
+    }
+}
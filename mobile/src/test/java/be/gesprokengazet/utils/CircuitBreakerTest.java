@@ -0,0 +1,99 @@
+package be.gesprokengazet.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link CircuitBreaker} class.
+ */
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+    // Without jitter: open for 1s, then 2s, ...
+    private final CircuitBreaker mBreaker = new CircuitBreaker(
+            new BackoffPolicy(2000, 8000, Integer.MAX_VALUE, new Random() {
+                @Override
+                public double nextDouble() {
+                    return 0;
+                }
+            }));
+
+    @Test
+    public void testOpensAfterFailuresInARow() throws Exception {
+        fail(2, 0);
+        assertTrue(mBreaker.allowRequest(0));
+        mBreaker.onFailure(0);
+
+        assertEquals(1000, mBreaker.getOpenUntil());
+        assertFalse(mBreaker.allowRequest(999));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() throws Exception {
+        fail(2, 0);
+        mBreaker.onSuccess();
+        fail(2, 0);
+
+        assertEquals(0, mBreaker.getOpenUntil());
+        assertTrue(mBreaker.allowRequest(0));
+    }
+
+    @Test
+    public void testSingleTrialWhenCooledDown() throws Exception {
+        fail(3, 0);
+
+        assertTrue(mBreaker.allowRequest(1000));
+        assertFalse(mBreaker.allowRequest(1000));
+        mBreaker.onSuccess();
+        assertEquals(0, mBreaker.getOpenUntil());
+        assertTrue(mBreaker.allowRequest(1000));
+    }
+
+    @Test
+    public void testFailedTrialOpensLonger() throws Exception {
+        fail(3, 0);
+
+        assertTrue(mBreaker.allowRequest(1000));
+        mBreaker.onFailure(1000);
+        assertEquals(3000, mBreaker.getOpenUntil());
+        assertFalse(mBreaker.allowRequest(2999));
+    }
+
+    @Test
+    public void testAbandonedTrialAllowsAnother() throws Exception {
+        fail(3, 0);
+
+        assertTrue(mBreaker.allowRequest(1000));
+        mBreaker.onAbandoned();
+        assertTrue(mBreaker.allowRequest(1000));
+    }
+
+    @Test
+    public void testForHost() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.forHost("www.vrt.be");
+        assertSame(breaker, CircuitBreaker.forHost("www.vrt.be"));
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(0);
+        }
+        assertFalse(breaker.allowRequest(0));
+        assertTrue(CircuitBreaker.forHost("www.deredactie.be").allowRequest(0));
+
+        CircuitBreaker.resetAll();
+        assertTrue(breaker.allowRequest(0));
+    }
+
+    private void fail(int times, long now) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(mBreaker.allowRequest(now));
+            mBreaker.onFailure(now);
+        }
+    }
+}
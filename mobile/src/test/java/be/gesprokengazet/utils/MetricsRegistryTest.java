@@ -0,0 +1,83 @@
+package be.gesprokengazet.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the {@link MetricsRegistry} class.
+ */
+@RunWith(JUnit4.class)
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry mRegistry = new MetricsRegistry();
+
+    @Test
+    public void testCounter() throws Exception {
+        mRegistry.counter("download.article.success").increment();
+        mRegistry.counter("download.article.success").add(2);
+
+        assertSame(mRegistry.counter("a"), mRegistry.counter("a"));
+        assertEquals(3, (long) mRegistry.snapshot().get("download.article.success"));
+    }
+
+    @Test
+    public void testGauge() throws Exception {
+        MetricsRegistry.Gauge depth = mRegistry.gauge("download.article.queueDepth");
+        depth.add(1);
+        depth.add(1);
+        depth.add(-1);
+
+        Map<String, Long> snapshot = mRegistry.snapshot();
+        assertEquals(1, (long) snapshot.get("download.article.queueDepth"));
+        assertEquals(2, (long) snapshot.get("download.article.queueDepth.max"));
+    }
+
+    @Test
+    public void testTimer() throws Exception {
+        MetricsRegistry.Timer wait = mRegistry.timer("download.article.wait");
+        wait.record(10);
+        wait.record(30);
+
+        Map<String, Long> snapshot = mRegistry.snapshot();
+        assertEquals(2, (long) snapshot.get("download.article.wait.count"));
+        assertEquals(40, (long) snapshot.get("download.article.wait.total"));
+        assertEquals(20, (long) snapshot.get("download.article.wait.mean"));
+        assertEquals(30, (long) snapshot.get("download.article.wait.max"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNameOfOtherType() throws Exception {
+        mRegistry.gauge("download.article.wait");
+        mRegistry.timer("download.article.wait");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNameOfDerivedValue() throws Exception {
+        mRegistry.counter("download.article.queueDepth.max");
+        mRegistry.gauge("download.article.queueDepth");
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        mRegistry.counter("count").increment();
+        mRegistry.timer("time").record(5);
+        MetricsRegistry.Gauge level = mRegistry.gauge("level");
+        level.set(4);
+        level.set(1);
+
+        mRegistry.reset();
+        Map<String, Long> snapshot = mRegistry.snapshot();
+        assertEquals(0, (long) snapshot.get("count"));
+        assertEquals(0, (long) snapshot.get("time.count"));
+        assertEquals(0, (long) snapshot.get("time.max"));
+        // The level itself is still there, its peak starts over
+        assertEquals(1, (long) snapshot.get("level"));
+        assertEquals(1, (long) snapshot.get("level.max"));
+    }
+}